@@ -0,0 +1,38 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks like JMH's own main does, but writes the results as
+ * JSON to <code>jmh-result.json</code> unless told otherwise, so runs can be
+ * compared. Where the ledgers come from is passed to every fork as
+ * <code>-Dbenchmark.fixtureSource</code>, so it shows in the JVM arguments of
+ * each result.
+ *
+ * @author smelis
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        String source = Fixtures.source();
+        System.out.println("Fixtures: " + source);
+        List<String> jvmArgs = new ArrayList<>(commandLine.getJvmArgsAppend().orElse(Collections.emptyList()));
+        jvmArgs.add("-Dbenchmark.fixtureSource=" + source);
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+                .result(commandLine.getResult().orElse("jmh-result.json"))
+                .jvmArgsAppend(jvmArgs.toArray(new String[0]))
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,85 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and writing ledgers with the ledger caches.
+ *
+ * @author smelis
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacherBenchmark {
+
+    private static final int CACHED_LEDGERS = 1000;
+
+    @Param({"files", "segmented", "segmented-deflate"})
+    public String cacher;
+
+    @Param({Fixtures.SPARSE, Fixtures.DENSE})
+    public String fixture;
+
+    private Path dir;
+    private LedgerCache cache;
+    private byte[] ledger;
+    private long nextWrite;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("cacher-benchmark");
+        switch (cacher) {
+            case "files":
+                cache = new Cacher(dir);
+                break;
+            case "segmented":
+                cache = new SegmentedCacher(dir, SegmentedCacher.DEFAULT_SEGMENT_SIZE, false);
+                break;
+            default:
+                cache = new SegmentedCacher(dir, SegmentedCacher.DEFAULT_SEGMENT_SIZE, true);
+        }
+        ledger = Fixtures.ledger(fixture);
+        for (long i = 0; i < CACHED_LEDGERS; i++) {
+            cache.cacheLedger(ledger, i);
+        }
+        nextWrite = CACHED_LEDGERS;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        cache.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    public byte[] read() throws IOException {
+        return cache.getCachedLedgerBytes(ThreadLocalRandom.current().nextInt(CACHED_LEDGERS));
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        cache.cacheLedger(ledger, nextWrite++);
+    }
+
+}
@@ -0,0 +1,40 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import okhttp3.HttpUrl;
+
+/**
+ * Records a sparse and a dense ledger from rippled for the benchmarks, as
+ * <code>sparse.json</code> and <code>dense.json</code>. Record them in
+ * {@value Fixtures#RESOURCES} and commit them, so every run measures the same
+ * ledgers, or run the benchmarks with
+ * <code>-Dbenchmark.fixtures=&lt;dir&gt;</code> to try others.
+ *
+ * Usage: FixtureRecorder &lt;dir&gt; [sparse ledger] [dense ledger] [rippled
+ * url]
+ *
+ * @author smelis
+ */
+public class FixtureRecorder {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: FixtureRecorder <dir> [sparse ledger] [dense ledger] [rippled url]");
+            System.exit(1);
+        }
+        Path dir = Paths.get(args[0]);
+        // The first ledger with a transaction, and a busy one from 2022
+        long sparse = args.length > 1 ? Long.parseLong(args[1]) : 38128;
+        long dense = args.length > 2 ? Long.parseLong(args[2]) : 70_000_000;
+        HttpUrl url = HttpUrl.get(args.length > 3 ? args[3] : "https://s2.ripple.com:51234/");
+        RippledClient client = new RippledClient(Collections.singletonList(url), 1, 1, 1000);
+        Files.createDirectories(dir);
+        Files.write(dir.resolve(Fixtures.SPARSE + ".json"), client.ledger(sparse));
+        Files.write(dir.resolve(Fixtures.DENSE + ".json"), client.ledger(dense));
+        System.out.println("Recorded ledgers " + sparse + " and " + dense + " in " + dir);
+    }
+
+}
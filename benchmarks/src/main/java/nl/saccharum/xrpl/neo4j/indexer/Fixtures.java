@@ -0,0 +1,242 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.xrpl.xrpl4j.model.jackson.ObjectMapperFactory;
+
+/**
+ * Ledgers to benchmark with, as the <code>result</code> of the ledger method.
+ *
+ * The parse, transformer and cacher benchmarks run on recorded ledgers (see
+ * {@link FixtureRecorder}): a sparse one from the early days, with a couple of
+ * payments, and a dense one from today, with hundreds of transactions. They
+ * are read from <code>sparse.json</code> and <code>dense.json</code> in the
+ * directory named by <code>-Dbenchmark.fixtures</code>, or else from
+ * <code>fixtures/</code> on the classpath, which is where
+ * <code>src/main/resources/fixtures</code> ends up. Without them those
+ * benchmarks fail rather than measure something else.
+ *
+ * Only the write benchmark generates its ledgers, because it needs an endless
+ * run of new ones following each other: sparse ones with a couple of payments,
+ * or dense ones with hundreds of transactions of which most are payments in
+ * XRP or issued currencies, some activating new accounts, and the rest offers.
+ *
+ * @author smelis
+ */
+public final class Fixtures {
+
+    public static final String SPARSE = "sparse";
+    public static final String DENSE = "dense";
+    public static final String RESOURCES = "benchmarks/src/main/resources/fixtures";
+
+    private static final String ALPHABET = "rpshnaf39wBUDNEGHJKLM4PQRST7VWXYZ2bcdeCg65jkm8oFqi1tuvAxyz";
+    private static final String HEX = "0123456789ABCDEF";
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return the recorded ledger of the given kind
+     * @throws IOException if there is none, or it can't be read
+     */
+    public static byte[] ledger(String kind) throws IOException {
+        String dir = System.getProperty("benchmark.fixtures");
+        if (dir != null) {
+            Path recorded = Paths.get(dir, kind + ".json");
+            if (Files.exists(recorded)) {
+                return Files.readAllBytes(recorded);
+            }
+        }
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + kind + ".json")) {
+            if (in == null) {
+                throw new IOException("No recorded " + kind + " ledger in " + (dir != null ? dir + " or " : "")
+                        + "fixtures/ on the classpath, record one with: FixtureRecorder " + RESOURCES);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * @return where the ledgers come from, as a single line to go with the
+     * results
+     */
+    public static String source() {
+        String dir = System.getProperty("benchmark.fixtures");
+        StringBuilder source = new StringBuilder();
+        for (String kind : Arrays.asList(SPARSE, DENSE)) {
+            source.append(kind).append('=');
+            try {
+                byte[] ledger = ledger(kind);
+                String where = dir != null && Files.exists(Paths.get(dir, kind + ".json")) ? dir : "classpath";
+                source.append("recorded ledger ")
+                        .append(ObjectMapperFactory.create().readTree(ledger).path("ledger_index").asText())
+                        .append(" from ").append(where);
+            } catch (IOException ex) {
+                source.append("missing");
+            }
+            source.append(", ");
+        }
+        return source.append("write=generated").toString();
+    }
+
+    /**
+     * @return a generated ledger of the given kind, never a recorded one
+     */
+    public static byte[] generated(String kind, long ledgerIndex) {
+        switch (kind) {
+            case SPARSE:
+                return generate(ledgerIndex, 2, new Random(ledgerIndex));
+            case DENSE:
+                return generate(ledgerIndex, 400, new Random(ledgerIndex));
+            default:
+                throw new IllegalArgumentException("Unknown fixture: " + kind);
+        }
+    }
+
+    /**
+     * Generates a ledger in the format rippled sends, with the given number of
+     * transactions.
+     */
+    static byte[] generate(long ledgerIndex, int transactions, Random random) {
+        List<String> wallets = new LedgerTransformer().getGenesisWallets();
+        StringBuilder txs = new StringBuilder();
+        for (int i = 0; i < transactions; i++) {
+            if (i > 0) {
+                txs.append(',');
+            }
+            String account = wallets.get(random.nextInt(wallets.size()));
+            int dice = random.nextInt(100);
+            if (dice < 20 && transactions > 10) {
+                txs.append(offer(account, i, ledgerIndex, random));
+            } else if (dice < 25) {
+                txs.append(payment(account, address(random), "\"" + (20_000_000 + random.nextInt(1_000_000)) + "\"", true, i, ledgerIndex, random));
+            } else if (dice < 45 && transactions > 10) {
+                String usd = "{\"currency\":\"USD\",\"issuer\":\"" + wallets.get(0) + "\",\"value\":\"" + random.nextInt(10_000) / 100.0 + "\"}";
+                txs.append(payment(account, wallets.get(random.nextInt(wallets.size())), usd, false, i, ledgerIndex, random));
+            } else {
+                txs.append(payment(account, wallets.get(random.nextInt(wallets.size())), "\"" + random.nextInt(1_000_000_000) + "\"", false, i, ledgerIndex, random));
+            }
+        }
+        String ledgerHash = hash(random);
+        String json = "{\"ledger\":{\"accepted\":true,\"account_hash\":\"" + hash(random) + "\",\"close_flags\":0,"
+                + "\"close_time\":410239270,\"close_time_human\":\"2013-Jan-01 03:21:10.000000000 UTC\","
+                + "\"close_time_resolution\":10,\"closed\":true,\"hash\":\"" + ledgerHash + "\",\"ledger_hash\":\"" + ledgerHash + "\","
+                + "\"ledger_index\":\"" + ledgerIndex + "\",\"parent_close_time\":410239260,\"parent_hash\":\"" + hash(random) + "\","
+                + "\"seqNum\":\"" + ledgerIndex + "\",\"totalCoins\":\"99999999999996320\",\"total_coins\":\"99999999999996320\","
+                + "\"transaction_hash\":\"" + hash(random) + "\",\"transactions\":[" + txs + "]},"
+                + "\"ledger_hash\":\"" + ledgerHash + "\",\"ledger_index\":" + ledgerIndex + ",\"validated\":true}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String payment(String account, String destination, String amount, boolean activation, int index, long ledgerIndex, Random random) {
+        String created = activation
+                ? "{\"CreatedNode\":{\"LedgerEntryType\":\"AccountRoot\",\"LedgerIndex\":\"" + hash(random) + "\","
+                + "\"NewFields\":{\"Account\":\"" + destination + "\",\"Balance\":" + amount + ",\"Sequence\":1}}}"
+                : modifiedAccountRoot(destination, ledgerIndex, random);
+        return "{\"Account\":\"" + account + "\",\"Amount\":" + amount + ",\"Destination\":\"" + destination + "\","
+                + (random.nextInt(4) == 0 ? "\"DestinationTag\":" + random.nextInt(100_000) + "," : "")
+                + "\"Fee\":\"12\",\"Flags\":2147483648,\"Sequence\":" + (index + 1) + ","
+                + "\"SigningPubKey\":\"" + hex(33, random) + "\",\"TransactionType\":\"Payment\","
+                + "\"TxnSignature\":\"" + hex(70, random) + "\",\"hash\":\"" + hash(random) + "\","
+                + "\"metaData\":{\"AffectedNodes\":[" + modifiedAccountRoot(account, ledgerIndex, random) + "," + created + "],"
+                + "\"TransactionIndex\":" + index + ",\"TransactionResult\":\"tesSUCCESS\",\"delivered_amount\":" + amount + "}}";
+    }
+
+    private static String offer(String account, int index, long ledgerIndex, Random random) {
+        return "{\"Account\":\"" + account + "\",\"Fee\":\"12\",\"Flags\":0,\"Sequence\":" + (index + 1) + ","
+                + "\"SigningPubKey\":\"" + hex(33, random) + "\",\"TakerGets\":\"" + random.nextInt(1_000_000_000) + "\","
+                + "\"TakerPays\":{\"currency\":\"USD\",\"issuer\":\"" + account + "\",\"value\":\"" + random.nextInt(1000) + "\"},"
+                + "\"TransactionType\":\"OfferCreate\",\"TxnSignature\":\"" + hex(70, random) + "\",\"hash\":\"" + hash(random) + "\","
+                + "\"metaData\":{\"AffectedNodes\":[" + modifiedAccountRoot(account, ledgerIndex, random) + "],"
+                + "\"TransactionIndex\":" + index + ",\"TransactionResult\":\"tesSUCCESS\"}}";
+    }
+
+    private static String modifiedAccountRoot(String account, long ledgerIndex, Random random) {
+        return "{\"ModifiedNode\":{\"FinalFields\":{\"Account\":\"" + account + "\",\"Balance\":\"" + random.nextInt(Integer.MAX_VALUE) + "\","
+                + "\"Flags\":0,\"OwnerCount\":0,\"Sequence\":5},\"LedgerEntryType\":\"AccountRoot\",\"LedgerIndex\":\"" + hash(random) + "\","
+                + "\"PreviousFields\":{\"Balance\":\"" + random.nextInt(Integer.MAX_VALUE) + "\",\"Sequence\":4},"
+                + "\"PreviousTxnID\":\"" + hash(random) + "\",\"PreviousTxnLgrSeq\":" + (ledgerIndex - 1) + "}}";
+    }
+
+    private static String hash(Random random) {
+        return hex(32, random);
+    }
+
+    private static String hex(int bytes, Random random) {
+        StringBuilder hex = new StringBuilder(bytes * 2);
+        for (int i = 0; i < bytes * 2; i++) {
+            hex.append(HEX.charAt(random.nextInt(16)));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @return a valid address for a random account ID
+     */
+    static String address(Random random) {
+        byte[] payload = new byte[25];
+        byte[] accountId = new byte[20];
+        random.nextBytes(accountId);
+        System.arraycopy(accountId, 0, payload, 1, 20);
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            byte[] checksum = sha256.digest(sha256.digest(Arrays.copyOf(payload, 21)));
+            System.arraycopy(checksum, 0, payload, 21, 4);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        // Base58, most significant digit first; the zero version byte becomes the leading 'r'
+        StringBuilder address = new StringBuilder();
+        byte[] number = payload.clone();
+        int start = 0;
+        while (start < number.length && number[start] == 0) {
+            start++;
+        }
+        while (start < number.length) {
+            int remainder = 0;
+            for (int i = start; i < number.length; i++) {
+                int value = (remainder << 8) | (number[i] & 0xff);
+                number[i] = (byte) (value / 58);
+                remainder = value % 58;
+            }
+            address.append(ALPHABET.charAt(remainder));
+            while (start < number.length && number[start] == 0) {
+                start++;
+            }
+        }
+        for (int i = 0; i < payload.length && payload[i] == 0; i++) {
+            address.append(ALPHABET.charAt(0));
+        }
+        return address.reverse().toString();
+    }
+
+    /**
+     * @return the rows of <code>count</code> consecutive generated ledgers
+     * starting at <code>first</code>
+     */
+    static List<LedgerRows> rows(String kind, long first, int count) throws IOException {
+        LedgerParser parser = new LedgerParser(new LedgerTransformer(), LedgerParser.Mode.STREAMING);
+        List<LedgerRows> rows = new ArrayList<>(count);
+        for (long i = first; i < first + count; i++) {
+            rows.add(parser.toRows(generated(kind, i)));
+        }
+        return rows;
+    }
+
+}
@@ -0,0 +1,68 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xrpl.xrpl4j.model.client.ledger.LedgerResult;
+import org.xrpl.xrpl4j.model.jackson.ObjectMapperFactory;
+
+/**
+ * Getting from the JSON of a ledger to its rows: databinding it to xrpl4j's
+ * LedgerResult versus extracting it with the {@link LedgerExtractor}, with
+ * and without the transformation to rows.
+ *
+ * @author smelis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({Fixtures.SPARSE, Fixtures.DENSE})
+    public String fixture;
+
+    private final ObjectMapper objectMapper = ObjectMapperFactory.create();
+    private final LedgerExtractor extractor = new LedgerExtractor();
+    private final LedgerTransformer transformer = new LedgerTransformer();
+    private byte[] ledger;
+
+    @Setup
+    public void setUp() throws IOException {
+        ledger = Fixtures.ledger(fixture);
+    }
+
+    @Benchmark
+    public LedgerResult databind() throws IOException {
+        return objectMapper.readValue(ledger, LedgerResult.class);
+    }
+
+    @Benchmark
+    public LedgerRecord streaming() throws IOException {
+        return extractor.extract(ledger);
+    }
+
+    @Benchmark
+    public LedgerRows databindToRows() throws IOException {
+        return transformer.toRows(objectMapper.readValue(ledger, LedgerResult.class));
+    }
+
+    @Benchmark
+    public LedgerRows streamingToRows() throws IOException {
+        return transformer.toRows(extractor.extract(ledger));
+    }
+
+}
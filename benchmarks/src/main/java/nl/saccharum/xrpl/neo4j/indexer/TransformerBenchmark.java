@@ -0,0 +1,77 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xrpl.xrpl4j.model.client.ledger.LedgerResult;
+import org.xrpl.xrpl4j.model.client.transactions.TransactionResult;
+import org.xrpl.xrpl4j.model.jackson.ObjectMapperFactory;
+import org.xrpl.xrpl4j.model.transactions.Transaction;
+
+/**
+ * The steps of {@link LedgerTransformer#toRows(LedgerResult)} on a ledger
+ * that is databound already: picking the payments, deciding which are
+ * activations and building the parameters of the payments.
+ *
+ * @author smelis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformerBenchmark {
+
+    @Param({Fixtures.SPARSE, Fixtures.DENSE})
+    public String fixture;
+
+    private final LedgerTransformer transformer = new LedgerTransformer();
+    private LedgerResult ledger;
+    private List<TransactionResult<? extends Transaction>> payments;
+
+    @Setup
+    public void setUp() throws IOException {
+        ledger = ObjectMapperFactory.create().readValue(Fixtures.ledger(fixture), LedgerResult.class);
+        payments = transformer.paymentsFromTransactions(ledger.ledger().transactions());
+    }
+
+    @Benchmark
+    public List<TransactionResult<? extends Transaction>> paymentsFromTransactions() {
+        return transformer.paymentsFromTransactions(ledger.ledger().transactions());
+    }
+
+    @Benchmark
+    public void isActivationPayment(Blackhole blackhole) {
+        for (TransactionResult<? extends Transaction> payment : payments) {
+            blackhole.consume(transformer.isActivationPayment(payment));
+        }
+    }
+
+    @Benchmark
+    public LedgerRows createPaymentRelation() {
+        LedgerRows rows = new LedgerRows(ledger.ledgerIndexSafe().unsignedLongValue().longValue());
+        for (TransactionResult<? extends Transaction> payment : payments) {
+            transformer.createPaymentRelation(rows, ledger, payment);
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public LedgerRows toRows() {
+        return transformer.toRows(ledger);
+    }
+
+}
@@ -0,0 +1,93 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.driver.AuthTokens;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.GraphDatabase;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ledgers written per second by the {@link BatchWriter}, end to end against
+ * an embedded Neo4j with the indexer's schema. Every invocation writes a batch
+ * of new, generated ledgers following the previous ones, so the graph grows
+ * during the run like it does when indexing.
+ *
+ * @author smelis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WriteBenchmark {
+
+    private static final int LEDGERS_PER_BATCH = 100;
+    private static final String DATABASE = "neo4j";
+
+    @Param({Fixtures.SPARSE, Fixtures.DENSE})
+    public String fixture;
+
+    /**
+     * Wallets the registry holds on to; with 1 nearly every wallet is looked
+     * up in the graph, as good as writing without a registry.
+     */
+    @Param({"2000000", "1"})
+    public int registryCapacity;
+
+    private Neo4j neo4j;
+    private Driver driver;
+    private BatchWriter batchWriter;
+    private List<LedgerRows> batch;
+    private long nextLedger = 32570;
+
+    @Setup(Level.Trial)
+    public void startNeo4j() {
+        neo4j = Neo4jBuilders.newInProcessBuilder().withDisabledServer().build();
+        driver = GraphDatabase.driver(neo4j.boltURI(), AuthTokens.none());
+        Main.createSchema(driver, DATABASE);
+        WalletRegistry walletRegistry = new WalletRegistry(registryCapacity, WalletRegistry.Eviction.NONE);
+        batchWriter = new BatchWriter(driver, DATABASE, walletRegistry, new IndexerMetrics(),
+                Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+        batchWriter.add(new LedgerTransformer().genesisRows());
+        batchWriter.flush();
+    }
+
+    @Setup(Level.Invocation)
+    public void nextBatch() throws IOException {
+        batch = Fixtures.rows(fixture, nextLedger, LEDGERS_PER_BATCH);
+        nextLedger += LEDGERS_PER_BATCH;
+    }
+
+    @TearDown(Level.Trial)
+    public void stopNeo4j() {
+        batchWriter.close();
+        driver.close();
+        neo4j.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LEDGERS_PER_BATCH)
+    public void write() {
+        batch.forEach(batchWriter::add);
+        batchWriter.flush();
+    }
+
+}
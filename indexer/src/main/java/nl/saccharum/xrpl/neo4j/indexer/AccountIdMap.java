@@ -0,0 +1,151 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.Arrays;
+
+/**
+ * Fixed capacity hash map from 20 byte account IDs to non-negative longs,
+ * without a single object per entry. Everything lives in one long array,
+ * four longs per slot: the first 16 bytes of the account ID, the last 4 bytes
+ * plus an occupied bit, and the value. Open addressing with linear probing,
+ * at a load factor of at most 0.75.
+ *
+ * So an entry takes between 43 and 85 bytes of heap, depending on how far
+ * <code>maxSize</code> is from the next power of two; see
+ * {@link #bytesFor(int)}. Entries can't be removed, only all at once with
+ * {@link #clear()}. Not thread safe.
+ *
+ * @author smelis
+ */
+public class AccountIdMap {
+
+    public static final int ACCOUNT_ID_LENGTH = 20;
+    private static final int STRIDE = 4;
+    private static final long OCCUPIED = 1L << 32;
+    // 2^29 slots of 4 longs is the largest array we can index
+    private static final int MAX_SLOTS = 1 << 29;
+
+    private final long[] table;
+    private final int mask;
+    private final int maxSize;
+    private int size = 0;
+
+    /**
+     * @param maxSize the number of entries after which {@link #put} refuses
+     * new ones
+     */
+    public AccountIdMap(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Size must be positive: " + maxSize);
+        }
+        int slots = slotsFor(maxSize);
+        this.table = new long[slots * STRIDE];
+        this.mask = slots - 1;
+        this.maxSize = Math.min(maxSize, slots * 3 / 4);
+    }
+
+    /**
+     * @return the heap taken by the table of a map holding up to
+     * <code>maxSize</code> entries
+     */
+    public static long bytesFor(int maxSize) {
+        return (long) slotsFor(maxSize) * STRIDE * Long.BYTES;
+    }
+
+    private static int slotsFor(int maxSize) {
+        long wanted = (long) maxSize * 4 / 3 + 1;
+        if (wanted >= MAX_SLOTS) {
+            return MAX_SLOTS;
+        }
+        return Integer.highestOneBit((int) wanted - 1) << 1;
+    }
+
+    /**
+     * @return the value for the account ID, or -1 if there is none
+     */
+    public long get(byte[] accountId) {
+        long k0 = word(accountId, 0);
+        long k1 = word(accountId, 8);
+        long k2 = tail(accountId);
+        for (int slot = slotOf(k0, k1); ; slot = (slot + 1) & mask) {
+            int i = slot * STRIDE;
+            if (table[i + 2] == 0) {
+                return -1;
+            }
+            if (table[i] == k0 && table[i + 1] == k1 && table[i + 2] == k2) {
+                return table[i + 3];
+            }
+        }
+    }
+
+    /**
+     * Sets the value for the account ID.
+     *
+     * @return false if the account ID is new and the map is full
+     */
+    public boolean put(byte[] accountId, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        long k0 = word(accountId, 0);
+        long k1 = word(accountId, 8);
+        long k2 = tail(accountId);
+        for (int slot = slotOf(k0, k1); ; slot = (slot + 1) & mask) {
+            int i = slot * STRIDE;
+            if (table[i + 2] == 0) {
+                if (size >= maxSize) {
+                    return false;
+                }
+                table[i] = k0;
+                table[i + 1] = k1;
+                table[i + 2] = k2;
+                table[i + 3] = value;
+                size++;
+                return true;
+            }
+            if (table[i] == k0 && table[i + 1] == k1 && table[i + 2] == k2) {
+                table[i + 3] = value;
+                return true;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    public boolean isFull() {
+        return size >= maxSize;
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0);
+        size = 0;
+    }
+
+    private int slotOf(long k0, long k1) {
+        // Account IDs are hashes already, this just folds the bits together
+        long h = (k0 ^ Long.rotateLeft(k1, 17)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static long word(byte[] bytes, int offset) {
+        long word = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            word = (word << 8) | (bytes[i] & 0xff);
+        }
+        return word;
+    }
+
+    private static long tail(byte[] bytes) {
+        long tail = 0;
+        for (int i = 16; i < ACCOUNT_ID_LENGTH; i++) {
+            tail = (tail << 8) | (bytes[i] & 0xff);
+        }
+        return OCCUPIED | tail;
+    }
+
+}
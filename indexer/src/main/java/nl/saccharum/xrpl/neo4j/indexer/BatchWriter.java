@@ -0,0 +1,299 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import nl.saccharum.xrpl.neo4j.indexer.IndexerMetrics.Stage;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Result;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+import org.neo4j.driver.Transaction;
+import org.neo4j.driver.Values;
+
+/**
+ * Collects the rows of consecutive ledgers and writes them with the UNWIND
+ * statements of {@link CypherTemplates} in a single transaction per batch. A
+ * batch is flushed when it holds <code>maxLedgers</code> ledgers or
+ * <code>maxRows</code> rows, or when the last flush is more than
+ * <code>flushIntervalMillis</code> ago.
+ *
+ * Every statement MERGEs, so writing a batch twice (e.g. when the commit
+ * failed after the server applied it) does no harm. Not thread safe.
+ *
+ * Wallets that are in the {@link WalletRegistry} aren't MERGEd again, and
+ * activations and payments between wallets with a known node id are written
+ * by id rather than by address. The ids of newly MERGEd wallets are
+ * registered once the transaction has committed.
+ *
+ * The statements MATCH the wallets of activations and payments, so these are
+ * only written when the ledger that activated the wallets was written before.
+ * When ledgers are written out of order, e.g. live ledgers while older ones
+ * are still being backfilled, {@link #setMergeEndpoints(boolean)} makes the
+ * writer MERGE all of them instead.
+ *
+ * The {@link WalletAggregates} of the wallets are updated in the same
+ * transaction, with the payments and activations it created.
+ *
+ * With a {@link ProgressTracker}, the writer also records the ledgers of the
+ * batch in its Checkpoint, in the same transaction. With a
+ * {@link LineageIndex}, the activations the batch wrote are added to it once
+ * the batch has committed.
+ *
+ * @author smelis
+ */
+public class BatchWriter implements AutoCloseable {
+
+    private final Driver neo4jDriver;
+    private final String database;
+    private final WalletRegistry walletRegistry;
+    private final IndexerMetrics metrics;
+    private final int maxLedgers;
+    private final int maxRows;
+    private final long flushIntervalMillis;
+
+    private final List<LedgerRows> pending = new ArrayList<>();
+    private int pendingRows = 0;
+    private long lastFlush = System.currentTimeMillis();
+    private boolean mergeEndpoints = false;
+    private ProgressTracker progress;
+    private String checkpoint;
+    private LineageIndex lineage;
+
+    public BatchWriter(Driver neo4jDriver, String database, WalletRegistry walletRegistry, IndexerMetrics metrics,
+            int maxLedgers, int maxRows, long flushIntervalMillis) {
+        this.neo4jDriver = neo4jDriver;
+        this.database = database;
+        this.walletRegistry = walletRegistry;
+        this.metrics = metrics;
+        this.maxLedgers = maxLedgers;
+        this.maxRows = maxRows;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * @param mergeEndpoints whether to MERGE the senders and receivers of
+     * payments and the parents of activations, not just the activated wallets
+     */
+    public void setMergeEndpoints(boolean mergeEndpoints) {
+        this.mergeEndpoints = mergeEndpoints;
+    }
+
+    /**
+     * Records the progress of this writer in the Checkpoint with the given
+     * name, which no other writer may use.
+     */
+    public void setProgress(ProgressTracker progress, String checkpoint) {
+        this.progress = progress;
+        this.checkpoint = checkpoint;
+    }
+
+    public void setLineage(LineageIndex lineage) {
+        this.lineage = lineage;
+    }
+
+    /**
+     * Adds the rows of a ledger to the batch, flushing it if it is full.
+     */
+    public void add(LedgerRows rows) {
+        pending.add(rows);
+        pendingRows += rows.size();
+        if (pending.size() >= maxLedgers || pendingRows >= maxRows) {
+            flush();
+        } else {
+            flushIfDue();
+        }
+    }
+
+    /**
+     * Flushes the batch if the flush interval has passed.
+     */
+    public void flushIfDue() {
+        if (!pending.isEmpty() && System.currentTimeMillis() - lastFlush >= flushIntervalMillis) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes all pending rows in one transaction. Transient failures are
+     * retried by the driver; if the transaction still fails the rows stay
+     * pending, so calling flush again is safe.
+     */
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Map<String, Object>> ledgers = new ArrayList<>();
+        // Sorted, so concurrent writers lock the wallets they share in the same order
+        Set<String> wallets = new TreeSet<>();
+        List<Map<String, Object>> activations = new ArrayList<>();
+        List<Map<String, Object>> payments = new ArrayList<>();
+        for (LedgerRows rows : pending) {
+            if (rows.getLedger() != null) {
+                ledgers.add(CypherTemplates.ledgerRow(rows.getLedger()));
+            }
+            for (String wallet : rows.getWallets()) {
+                if (walletRegistry.get(wallet) < 0) {
+                    wallets.add(wallet);
+                }
+            }
+            rows.getActivations().forEach((activation) -> activations.add(CypherTemplates.activationRow(activation)));
+            rows.getPayments().forEach((payment) -> payments.add(CypherTemplates.paymentRow(payment)));
+            if (mergeEndpoints) {
+                rows.getActivations().forEach((activation) -> addUnknown(wallets, (String) activation.get("parent")));
+                rows.getPayments().forEach((payment) -> {
+                    addUnknown(wallets, (String) payment.get("sender"));
+                    addUnknown(wallets, (String) payment.get("receiver"));
+                });
+            }
+        }
+        List<Long> ledgerIndexes = new ArrayList<>(pending.size());
+        pending.forEach((rows) -> ledgerIndexes.add(rows.getLedgerIndex()));
+        long[] ranges = progress != null ? progress.checkpoint(ledgerIndexes) : null;
+        Map<String, Long> created;
+        // When the statements of the last attempt were done, the rest is commit
+        long[] statementsDone = new long[1];
+        // The activations the last attempt wrote, by child
+        Set<String> writtenActivations = new HashSet<>();
+        try (Session session = neo4jDriver.session(SessionConfig.forDatabase(database))) {
+            created = session.writeTransaction((tx) -> {
+                // Order matters: the later statements MATCH what the earlier ones MERGE
+                run(tx, Stage.WRITE_LEDGERS, CypherTemplates.LEDGERS, ledgers);
+                Map<String, Long> walletIds = mergeWallets(tx, wallets);
+                Map<String, Boolean> writtenActivationKeys = runByIdOrAddress(tx, Stage.WRITE_ACTIVATIONS, CypherTemplates.ACTIVATIONS_BY_ID, CypherTemplates.ACTIVATIONS, activations, walletIds, "parent", "child");
+                Map<String, Boolean> writtenPaymentKeys = runByIdOrAddress(tx, Stage.WRITE_PAYMENTS, CypherTemplates.PAYMENTS_BY_ID, CypherTemplates.PAYMENTS, payments, walletIds, "sender", "receiver");
+                run(tx, Stage.WRITE_CONTAINS, CypherTemplates.CONTAINS, payments);
+                writeAggregates(tx, writtenActivationKeys, writtenPaymentKeys);
+                writtenActivations.clear();
+                writtenActivations.addAll(writtenActivationKeys.keySet());
+                if (ranges != null) {
+                    tx.run(CypherTemplates.CHECKPOINT, Values.parameters("name", checkpoint, "ranges", ranges)).consume();
+                }
+                statementsDone[0] = System.nanoTime();
+                return walletIds;
+            });
+        }
+        metrics.observe(Stage.COMMIT, statementsDone[0]);
+        walletRegistry.putAll(created);
+        if (progress != null) {
+            progress.committed(ledgerIndexes);
+        }
+        if (lineage != null) {
+            // Not the activations whose wallets weren't there to MATCH, the graph doesn't have them either
+            List<Map<String, Object>> written = new ArrayList<>();
+            for (LedgerRows rows : pending) {
+                rows.getActivations().stream().filter((activation) -> writtenActivations.contains(activation.get("child"))).forEach(written::add);
+            }
+            lineage.addAll(written, ledgerIndexes);
+        }
+        long lastLedger = pending.get(pending.size() - 1).getLedgerIndex();
+        metrics.written(pending.size(), payments.size(), activations.size(), created.size(), lastLedger);
+        System.out.println("Flushed " + pending.size() + " ledgers (" + pendingRows + " rows) up to ledger " + lastLedger);
+        pending.clear();
+        pendingRows = 0;
+        lastFlush = System.currentTimeMillis();
+    }
+
+    private void addUnknown(Set<String> wallets, String wallet) {
+        if (!wallets.contains(wallet) && walletRegistry.get(wallet) < 0) {
+            wallets.add(wallet);
+        }
+    }
+
+    private void run(Transaction tx, Stage stage, String query, List<?> rows) {
+        if (!rows.isEmpty()) {
+            long start = System.nanoTime();
+            tx.run(query, Values.parameters("rows", rows)).consume();
+            metrics.observe(stage, start);
+        }
+    }
+
+    /**
+     * Runs a statement that returns the keys of the rows it wrote, and whether
+     * it created them.
+     */
+    private Map<String, Boolean> runForKeys(Transaction tx, Stage stage, String query, List<?> rows) {
+        Map<String, Boolean> keys = new HashMap<>();
+        if (!rows.isEmpty()) {
+            long start = System.nanoTime();
+            tx.run(query, Values.parameters("rows", rows))
+                    .forEachRemaining((record) -> keys.merge(record.get("key").asString(), record.get("created").asBoolean(), Boolean::logicalOr));
+            metrics.observe(stage, start);
+        }
+        return keys;
+    }
+
+    /**
+     * Updates the aggregates of the wallets with the activations (by child)
+     * and payments (by hash) that were created.
+     */
+    private void writeAggregates(Transaction tx, Map<String, Boolean> activationKeys, Map<String, Boolean> paymentKeys) {
+        WalletAggregates aggregates = new WalletAggregates();
+        for (LedgerRows rows : pending) {
+            rows.getActivations().stream().filter((activation) -> activationKeys.getOrDefault(activation.get("child"), false)).forEach(aggregates::addActivation);
+            rows.getPayments().stream().filter((payment) -> paymentKeys.getOrDefault(payment.get("hash"), false)).forEach(aggregates::addPayment);
+        }
+        if (!aggregates.isEmpty()) {
+            long start = System.nanoTime();
+            aggregates.write(tx);
+            metrics.observe(Stage.WRITE_AGGREGATES, start);
+        }
+    }
+
+    /**
+     * @return the node ids of the wallets
+     */
+    private Map<String, Long> mergeWallets(Transaction tx, Set<String> wallets) {
+        Map<String, Long> walletIds = new HashMap<>();
+        if (!wallets.isEmpty()) {
+            long start = System.nanoTime();
+            Result result = tx.run(CypherTemplates.WALLETS, Values.parameters("rows", new ArrayList<>(wallets)));
+            result.forEachRemaining((record) -> walletIds.put(record.get("address").asString(), record.get("id").asLong()));
+            metrics.observe(Stage.WRITE_WALLETS, start);
+        }
+        return walletIds;
+    }
+
+    /**
+     * Runs the rows for which both wallets have a known id with
+     * <code>byId</code>, the others with <code>byAddress</code>.
+     *
+     * @return the keys of the rows that were written, and whether they were
+     * created
+     */
+    private Map<String, Boolean> runByIdOrAddress(Transaction tx, Stage stage, String byId, String byAddress, List<Map<String, Object>> rows,
+            Map<String, Long> walletIds, String from, String to) {
+        List<Map<String, Object>> idRows = new ArrayList<>();
+        List<Map<String, Object>> addressRows = new ArrayList<>();
+        for (Map<String, Object> row : rows) {
+            long fromId = walletId((String) row.get(from), walletIds);
+            long toId = fromId < 0 ? -1 : walletId((String) row.get(to), walletIds);
+            if (toId < 0) {
+                addressRows.add(row);
+            } else {
+                Map<String, Object> idRow = new HashMap<>(row);
+                idRow.put(from + "Id", fromId);
+                idRow.put(to + "Id", toId);
+                idRows.add(idRow);
+            }
+        }
+        Map<String, Boolean> written = runForKeys(tx, stage, byId, idRows);
+        runForKeys(tx, stage, byAddress, addressRows).forEach((key, created) -> written.merge(key, created, Boolean::logicalOr));
+        return written;
+    }
+
+    private long walletId(String address, Map<String, Long> walletIds) {
+        Long id = walletIds.get(address);
+        return id != null ? id : walletRegistry.get(address);
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+}
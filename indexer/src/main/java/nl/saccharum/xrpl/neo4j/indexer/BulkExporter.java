@@ -0,0 +1,341 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports a range of cached ledgers as CSV files for <code>neo4j-admin
+ * import</code> (<code>neo4j-admin database import full</code> as of Neo4j 5),
+ * which is a lot faster than MERGEing the full history through Bolt.
+ *
+ * The rows come from the {@link LedgerTransformer}, so the imported graph is
+ * the same as the one the indexer builds, except for the
+ * {@link WalletAggregates}: the import has none, so the indexer is run once
+ * with <code>indexer.mode=AGGREGATES</code> to compute them before it adds
+ * anything to them. Afterwards the indexer continues from the highest
+ * imported ledger, once it is told that an imported graph has only complete
+ * ledgers (<code>indexer.progress.trustLedgers</code>, see
+ * {@link ProgressTracker}).
+ *
+ * The range is split into partitions that are exported in parallel, each to
+ * its own set of part files. Wallets get their ID the first time any worker
+ * runs into them, from an {@link AccountIdMap} that is the only thing growing
+ * with the size of the export. It is allocated up front for
+ * <code>indexer.export.maxWallets</code> wallets (12 million by default, 512
+ * MB), so a heap that is too small fails the export at the start instead of
+ * hours in; so does running into more wallets than that.
+ *
+ * Usage: BulkExporter &lt;cache dir&gt; &lt;output dir&gt; &lt;first ledger&gt;
+ * &lt;last ledger&gt; [workers] [ledgers per partition]
+ *
+ * @author smelis
+ */
+public class BulkExporter {
+
+    /**
+     * A set of CSV files sharing a header, imported as one node or
+     * relationship group.
+     */
+    private enum Group {
+        LEDGERS("ledgers", "--nodes=Ledger",
+                ":ID(Ledger),ledgerIndex:long,ledgerHash,closeTime:datetime,parentHash,totalCoins:long"),
+        // The genesis ledger and activations use numbers where real ones use hashes
+        GENESIS_LEDGER("genesis-ledger", "--nodes=Ledger",
+                ":ID(Ledger),ledgerIndex:long,ledgerHash:long,closeTime:datetime,parentHash:long,totalCoins:long"),
+        WALLETS("wallets", "--nodes=Wallet",
+                ":ID(Wallet),address"),
+        // XRP amounts are drops (long), issued amounts are floats
+        XRP_PAYMENTS("xrp-payments", "--nodes=Payment",
+                ":ID(Payment),hash,date:datetime,ledgerIndex:long,fee:long,isActivation:boolean,sourceTag:long,destinationTag:long,"
+                + "deliveredCurrencyIssuer,deliveredAmount:double,deliveredDrops:long,deliveredCurrency,amountCurrencyIssuer,amountCurrency,amount:long"),
+        ISSUED_PAYMENTS("issued-payments", "--nodes=Payment",
+                ":ID(Payment),hash,date:datetime,ledgerIndex:long,fee:long,isActivation:boolean,sourceTag:long,destinationTag:long,"
+                + "deliveredCurrencyIssuer,deliveredAmount:double,deliveredDrops:long,deliveredCurrency,amountCurrencyIssuer,amountCurrency,amount:double"),
+        PAYS("pays", "--relationships=PAYS",
+                ":START_ID(Wallet),:END_ID(Payment)"),
+        RECEIVES("receives", "--relationships=RECEIVES",
+                ":START_ID(Payment),:END_ID(Wallet)"),
+        CONTAINS("contains", "--relationships=CONTAINS",
+                ":START_ID(Ledger),:END_ID(Payment)"),
+        ACTIVATES("activates", "--relationships=ACTIVATES",
+                ":START_ID(Wallet),:END_ID(Wallet),date:datetime,hash,ledgerIndex:long,amount:long"),
+        GENESIS_ACTIVATES("genesis-activates", "--relationships=ACTIVATES",
+                ":START_ID(Wallet),:END_ID(Wallet),date:datetime,hash:long,ledgerIndex:long,amount:long"),
+        LEDGER_ACTIVATES("ledger-activates", "--relationships=ACTIVATES",
+                ":START_ID(Ledger),:END_ID(Wallet)");
+
+        private final String name;
+        private final String option;
+        private final String header;
+
+        Group(String name, String option, String header) {
+            this.name = name;
+            this.option = option;
+            this.header = header;
+        }
+    }
+
+    private static final String[] PAYMENT_COLUMNS = {"hash", "date", "ledgerIndex", "fee", "isActivation", "sourceTag", "destinationTag",
+        "deliveredCurrencyIssuer", "deliveredAmount", "deliveredDrops", "deliveredCurrency", "amountCurrencyIssuer", "amountCurrency", "amount"};
+
+    private final LedgerCache cache;
+    private final Path outputDir;
+    private final int workers;
+    private final long partitionSize;
+    private final LedgerTransformer transformer = new LedgerTransformer();
+    private final LedgerParser parser = new LedgerParser(transformer, LedgerParser.modeFromSystemProperty());
+    private static final int MAX_WALLETS = Integer.getInteger("indexer.export.maxWallets", 12_000_000);
+
+    private final AccountIdMap walletIds;
+    // Wallets that don't have an XRPL address, like "genesis"
+    private final Map<String, Long> otherWalletIds = new HashMap<>();
+    private long nextWalletId = 0;
+    private final Set<Group> usedGroups = EnumSet.noneOf(Group.class);
+
+    public BulkExporter(LedgerCache cache, Path outputDir, int workers, long partitionSize) {
+        this(cache, outputDir, workers, partitionSize, MAX_WALLETS);
+    }
+
+    /**
+     * @param maxWallets the number of wallets the export has room for
+     * @throws IllegalArgumentException if that would take more than half the
+     * heap
+     */
+    public BulkExporter(LedgerCache cache, Path outputDir, int workers, long partitionSize, int maxWallets) {
+        long walletIdBytes = AccountIdMap.bytesFor(maxWallets);
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        if (walletIdBytes > maxHeap / 2) {
+            throw new IllegalArgumentException("The IDs of " + maxWallets + " wallets take " + (walletIdBytes >> 20)
+                    + " MB, more than half the heap of " + (maxHeap >> 20) + " MB; raise -Xmx or lower indexer.export.maxWallets");
+        }
+        this.cache = cache;
+        this.outputDir = outputDir;
+        this.workers = workers;
+        this.partitionSize = partitionSize;
+        this.walletIds = new AccountIdMap(maxWallets);
+    }
+
+    /**
+     * Exports ledgers <code>from</code> up to and including <code>to</code>,
+     * plus the genesis ledger. Fails if any ledger in the range is not cached.
+     */
+    public void export(long from, long to) throws IOException, InterruptedException {
+        Files.createDirectories(outputDir);
+        try (Partition genesis = new Partition("genesis")) {
+            genesis.writeGenesis(transformer.genesisRows());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Void>> partitions = new ArrayList<>();
+            for (long start = from; start <= to; start += partitionSize) {
+                final long first = start;
+                final long last = Math.min(to, start + partitionSize - 1);
+                partitions.add(executor.submit(() -> {
+                    try (Partition partition = new Partition(Long.toString(first))) {
+                        for (long i = first; i <= last; i++) {
+                            partition.write(readLedger(i));
+                        }
+                    }
+                    System.out.println("Exported ledgers " + first + " - " + last);
+                    return null;
+                }));
+            }
+            for (Future<Void> partition : partitions) {
+                partition.get();
+            }
+        } catch (ExecutionException ex) {
+            throw new IOException("Export failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        writeHeaders();
+        System.out.println("Exported " + nextWalletId + " wallets. Import with:");
+        System.out.println(importCommand());
+        System.out.println("Then run the indexer once with -Dindexer.mode=AGGREGATES, so the wallets get their aggregates before anything is added to them.");
+        System.out.println("Then start the indexer once with -Dindexer.progress.trustLedgers=true, so it counts every imported ledger as complete.");
+    }
+
+    private LedgerRows readLedger(long ledgerIndex) throws IOException {
+        byte[] json = cache.getCachedLedgerBytes(ledgerIndex);
+        if (json == null) {
+            throw new IOException("Ledger " + ledgerIndex + " is not cached");
+        }
+        return parser.toRows(json);
+    }
+
+    private void writeHeaders() throws IOException {
+        for (Group group : Group.values()) {
+            Files.write(outputDir.resolve(group.name + "-header.csv"), (group.header + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private String importCommand() {
+        StringBuilder command = new StringBuilder("neo4j-admin import --database=<database>");
+        synchronized (usedGroups) {
+            for (Group group : usedGroups) {
+                Path dir = outputDir.toAbsolutePath();
+                command.append(" \\\n  ").append(group.option).append("=\"")
+                        .append(dir.resolve(group.name + "-header.csv")).append(",")
+                        .append(dir.resolve(group.name + "-part-.*\\.csv")).append("\"");
+            }
+        }
+        return command.toString();
+    }
+
+    /**
+     * The part files of one partition. Only used by a single worker.
+     */
+    private final class Partition implements AutoCloseable {
+
+        private final String name;
+        private final Map<Group, Writer> writers = new EnumMap<>(Group.class);
+
+        Partition(String name) {
+            this.name = name;
+        }
+
+        void write(LedgerRows rows) throws IOException {
+            Map<String, Object> ledger = rows.getLedger();
+            String ledgerId = ledger.get("ledgerIndex").toString();
+            row(Group.LEDGERS, ledgerId, ledger.get("ledgerIndex"), ledger.get("ledgerHash"), ledger.get("closeTime"),
+                    ledger.get("parentHash"), ledger.get("totalCoins"));
+            writeActivations(rows, Group.ACTIVATES);
+            for (Map<String, Object> payment : rows.getPayments()) {
+                Object[] values = new Object[PAYMENT_COLUMNS.length + 1];
+                values[0] = payment.get("hash");
+                for (int i = 0; i < PAYMENT_COLUMNS.length; i++) {
+                    values[i + 1] = payment.get(PAYMENT_COLUMNS[i]);
+                }
+                row("xrp".equals(payment.get("amountCurrency")) ? Group.XRP_PAYMENTS : Group.ISSUED_PAYMENTS, values);
+                row(Group.PAYS, walletId((String) payment.get("sender")), payment.get("hash"));
+                row(Group.RECEIVES, payment.get("hash"), walletId((String) payment.get("receiver")));
+                row(Group.CONTAINS, ledgerId, payment.get("hash"));
+            }
+        }
+
+        void writeGenesis(LedgerRows rows) throws IOException {
+            Map<String, Object> ledger = rows.getLedger();
+            row(Group.GENESIS_LEDGER, ledger.get("ledgerIndex"), ledger.get("ledgerIndex"), ledger.get("ledgerHash"), ledger.get("closeTime"),
+                    ledger.get("parentHash"), ledger.get("totalCoins"));
+            for (String address : rows.getWallets()) {
+                walletId(address);
+            }
+            writeActivations(rows, Group.GENESIS_ACTIVATES);
+        }
+
+        private void writeActivations(LedgerRows rows, Group group) throws IOException {
+            for (Map<String, Object> activation : rows.getActivations()) {
+                long child = walletId((String) activation.get("child"));
+                row(group, walletId((String) activation.get("parent")), child, activation.get("date"), activation.get("hash"),
+                        activation.get("ledgerIndex"), activation.get("amount"));
+                row(Group.LEDGER_ACTIVATES, activation.get("ledgerIndex"), child);
+            }
+        }
+
+        /**
+         * Returns the ID of the wallet, writing the wallet node if this is the
+         * first time any worker sees it.
+         */
+        private long walletId(String address) throws IOException {
+            byte[] accountId = WalletRegistry.decode(address);
+            long id;
+            synchronized (walletIds) {
+                id = accountId != null ? walletIds.get(accountId) : otherWalletIds.getOrDefault(address, -1L);
+                if (id >= 0) {
+                    return id;
+                }
+                id = nextWalletId;
+                if (accountId == null) {
+                    otherWalletIds.put(address, id);
+                } else if (!walletIds.put(accountId, id)) {
+                    throw new IOException("More than " + walletIds.maxSize() + " wallets, raise indexer.export.maxWallets");
+                }
+                nextWalletId++;
+            }
+            row(Group.WALLETS, id, address);
+            return id;
+        }
+
+        private void row(Group group, Object... values) throws IOException {
+            Writer writer = writers.get(group);
+            if (writer == null) {
+                writer = Files.newBufferedWriter(outputDir.resolve(group.name + "-part-" + name + ".csv"), StandardCharsets.UTF_8);
+                writers.put(group, writer);
+                synchronized (usedGroups) {
+                    usedGroups.add(group);
+                }
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(format(values[i]));
+            }
+            writer.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (Writer writer : writers.values()) {
+                try {
+                    writer.close();
+                } catch (IOException ex) {
+                    failure = ex;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static String format(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Float) {
+            // Same value Neo4j stores when it gets the float through Bolt
+            return Double.toString(((Float) value).doubleValue());
+        }
+        if (value instanceof ZonedDateTime) {
+            return DateTimeFormatter.ISO_ZONED_DATE_TIME.format((ZonedDateTime) value);
+        }
+        String string = value.toString();
+        if (string.indexOf(',') >= 0 || string.indexOf('"') >= 0 || string.indexOf('\n') >= 0) {
+            return "\"" + string.replace("\"", "\"\"") + "\"";
+        }
+        return string;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 4) {
+            System.err.println("Usage: BulkExporter <cache dir> <output dir> <first ledger> <last ledger> [workers] [ledgers per partition]");
+            System.exit(1);
+        }
+        int workers = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        long partitionSize = args.length > 5 ? Long.parseLong(args[5]) : 100_000;
+        try (LedgerCache cache = new SegmentedCacher(Paths.get(args[0]))) {
+            new BulkExporter(cache, Paths.get(args[1]), workers, partitionSize)
+                    .export(Long.parseLong(args[2]), Long.parseLong(args[3]));
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Converts a {@link Cacher} directory (one JSON file per ledger) into a
+ * {@link SegmentedCacher} directory. The source directory is left untouched and
+ * ledgers that are already in the target are skipped, so an interrupted
+ * migration can simply be started again.
+ *
+ * Usage: CacheMigrator &lt;source dir&gt; &lt;target dir&gt; [segment size] [compress]
+ *
+ * @author smelis
+ */
+public class CacheMigrator {
+
+    private final Path source;
+    private final SegmentedCacher target;
+    private final Cacher legacy;
+
+    public CacheMigrator(Path source, SegmentedCacher target) {
+        this.source = source;
+        this.target = target;
+        this.legacy = new Cacher(source);
+    }
+
+    public long migrate() throws IOException {
+        long[] ledgerIndexes = listLedgerIndexes();
+        // Sorted, so consecutive ledgers end up next to each other in the segments
+        Arrays.sort(ledgerIndexes);
+        System.out.println("Migrating " + ledgerIndexes.length + " ledgers from " + source);
+        long migrated = 0;
+        for (long ledgerIndex : ledgerIndexes) {
+            if (!target.isCached(ledgerIndex)) {
+                String ledger = legacy.getCachedLedger(ledgerIndex);
+                if (ledger != null) {
+                    target.cacheLedger(ledger, ledgerIndex);
+                    migrated++;
+                }
+            }
+            if (migrated > 0 && migrated % 10_000 == 0) {
+                System.out.println("Migrated " + migrated + " ledgers, at ledger " + ledgerIndex);
+            }
+        }
+        System.out.println("Migrated " + migrated + " ledgers");
+        return migrated;
+    }
+
+    private long[] listLedgerIndexes() throws IOException {
+        long[] indexes = new long[1024];
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(source, "*.json")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    long ledgerIndex = Long.parseLong(name.substring(0, name.length() - ".json".length()));
+                    if (count == indexes.length) {
+                        indexes = Arrays.copyOf(indexes, count * 2);
+                    }
+                    indexes[count++] = ledgerIndex;
+                } catch (NumberFormatException ex) {
+                    System.err.println("Skipping " + name);
+                }
+            }
+        }
+        return Arrays.copyOf(indexes, count);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CacheMigrator <source dir> <target dir> [segment size] [compress]");
+            System.exit(1);
+        }
+        int segmentSize = args.length > 2 ? Integer.parseInt(args[2]) : SegmentedCacher.DEFAULT_SEGMENT_SIZE;
+        boolean compress = args.length > 3 && Boolean.parseBoolean(args[3]);
+        try (SegmentedCacher target = new SegmentedCacher(Paths.get(args[1]), segmentSize, compress)) {
+            new CacheMigrator(Paths.get(args[0]), target).migrate();
+        }
+    }
+
+}
@@ -0,0 +1,270 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.HttpUrl;
+
+/**
+ * Fills a ledger cache with a range of ledgers and checks what is in it,
+ * without touching Neo4j, so a later ingest only reads from disk.
+ *
+ * The range is cut into chunks that are worked on in parallel by a bounded
+ * number of threads; rippled is only asked for what is missing or wrong, at
+ * the rate the {@link RippledClient} allows. Every cached ledger is parsed
+ * completely, so a truncated or otherwise corrupt entry, or one holding
+ * another ledger than its index says, is fetched again and replaced. Then
+ * the hash chain is checked: the parentHash of every ledger must be the
+ * ledgerHash of the one before it. Where a link is broken both ledgers are
+ * fetched again, and whichever differs from what rippled sends is replaced.
+ * What can't be fetched or doesn't line up even then is reported.
+ *
+ * Only the ledger headers are checked against each other; that the
+ * transactions in a ledger hash to its transaction_hash is not.
+ *
+ * Usage: CachePrefetcher &lt;cache dir&gt; &lt;from&gt; &lt;to&gt; [threads]
+ * [rippled urls]
+ *
+ * @author smelis
+ */
+public class CachePrefetcher {
+
+    private static final int CHUNK_SIZE = 1_000;
+    private static final double RIPPLED_INITIAL_RATE = Double.parseDouble(System.getProperty("indexer.rippled.initialRate", "10"));
+    private static final double RIPPLED_MAX_RATE = Double.parseDouble(System.getProperty("indexer.rippled.maxRate", "40"));
+    private static final long RIPPLED_TARGET_LATENCY_MILLIS = Long.getLong("indexer.rippled.targetLatencyMillis", 500);
+
+    private final LedgerCache cache;
+    private final RippledClient rippledClient;
+    private final LedgerExtractor extractor = new LedgerExtractor();
+    private final int threads;
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong fetched = new AtomicLong();
+    private final AtomicLong replaced = new AtomicLong();
+    private final AtomicLong relinked = new AtomicLong();
+    private final AtomicLong unresolved = new AtomicLong();
+
+    public CachePrefetcher(LedgerCache cache, RippledClient rippledClient, int threads) {
+        this.cache = cache;
+        this.rippledClient = rippledClient;
+        this.threads = threads;
+    }
+
+    /**
+     * The first and last ledger of a chunk, as far as the links to the
+     * neighbouring chunks go. A null hash means the ledger couldn't be had.
+     */
+    private static final class Chunk {
+
+        final long from;
+        final long to;
+        String firstParentHash;
+        String lastLedgerHash;
+
+        Chunk(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Prefetches and checks ledgers <code>from</code> (inclusive) up to
+     * <code>to</code> (exclusive).
+     *
+     * @return the number of problems that couldn't be resolved
+     */
+    public long prefetch(long from, long to) throws IOException, InterruptedException {
+        System.out.println("Prefetching ledgers " + from + " up to " + to + " with " + threads + " threads");
+        ExecutorService executor = Executors.newFixedThreadPool(threads, (runnable) -> {
+            Thread thread = new Thread(runnable, "prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<Chunk>> futures = new ArrayList<>();
+        for (long start = from; start < to; start += CHUNK_SIZE) {
+            Chunk chunk = new Chunk(start, Math.min(start + CHUNK_SIZE, to));
+            futures.add(executor.submit(() -> check(chunk)));
+        }
+        try {
+            Chunk previous = null;
+            for (Future<Chunk> future : futures) {
+                Chunk chunk = future.get();
+                // The link between two chunks is checked once both are done
+                if (previous != null && !links(previous.lastLedgerHash, chunk.firstParentHash)) {
+                    LedgerRecord[] fresh = relink(chunk.from);
+                    if (fresh != null) {
+                        chunk.firstParentHash = fresh[1].getParentHash();
+                    }
+                }
+                previous = chunk;
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof InterruptedException) {
+                throw (InterruptedException) ex.getCause();
+            }
+            throw new IOException("Prefetching failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println("Prefetched ledgers " + from + " up to " + to + ": " + verified.get() + " verified, "
+                + fetched.get() + " fetched, " + replaced.get() + " replaced, " + relinked.get() + " broken links repaired, "
+                + unresolved.get() + " unresolved");
+        return unresolved.get();
+    }
+
+    private Chunk check(Chunk chunk) throws IOException, InterruptedException {
+        int size = (int) (chunk.to - chunk.from);
+        String[] ledgerHashes = new String[size];
+        String[] parentHashes = new String[size];
+        for (int i = 0; i < size; i++) {
+            LedgerRecord ledger = load(chunk.from + i);
+            if (ledger != null) {
+                ledgerHashes[i] = ledger.getLedgerHash();
+                parentHashes[i] = ledger.getParentHash();
+            }
+        }
+        for (int i = 1; i < size; i++) {
+            if (!links(ledgerHashes[i - 1], parentHashes[i])) {
+                LedgerRecord[] fresh = relink(chunk.from + i);
+                if (fresh != null) {
+                    ledgerHashes[i - 1] = fresh[0].getLedgerHash();
+                    parentHashes[i - 1] = fresh[0].getParentHash();
+                    ledgerHashes[i] = fresh[1].getLedgerHash();
+                    parentHashes[i] = fresh[1].getParentHash();
+                }
+            }
+        }
+        chunk.firstParentHash = parentHashes[0];
+        chunk.lastLedgerHash = ledgerHashes[size - 1];
+        System.out.println("Checked ledgers " + chunk.from + " up to " + chunk.to);
+        return chunk;
+    }
+
+    /**
+     * A link with a ledger that couldn't be had has already been reported, so
+     * only counts as broken if both hashes are known.
+     */
+    private static boolean links(String ledgerHash, String parentHash) {
+        return ledgerHash == null || parentHash == null || ledgerHash.equals(parentHash);
+    }
+
+    /**
+     * @return the cached ledger, fetched and cached first if it is missing or
+     * corrupt, or null if that didn't work out
+     */
+    private LedgerRecord load(long ledgerIndex) throws InterruptedException {
+        String problem;
+        try {
+            byte[] cached = cache.getCachedLedgerBytes(ledgerIndex);
+            if (cached == null) {
+                problem = null;
+            } else {
+                LedgerRecord ledger = extractor.extract(cached);
+                if (ledger.getLedgerIndex() != ledgerIndex) {
+                    problem = "holds ledger " + ledger.getLedgerIndex();
+                } else if (ledger.getLedgerHash() == null || ledger.getParentHash() == null) {
+                    // Held to the same standard as a fetched one, see extract()
+                    problem = "has no ledger or parent hash";
+                } else {
+                    verified.incrementAndGet();
+                    return ledger;
+                }
+            }
+        } catch (IOException ex) {
+            problem = "is corrupt: " + ex.getMessage();
+        }
+        if (problem != null) {
+            System.err.println("Cached ledger " + ledgerIndex + " " + problem + ", fetching it again");
+        }
+        try {
+            byte[] bytes = rippledClient.ledger(ledgerIndex);
+            LedgerRecord ledger = extract(bytes, ledgerIndex);
+            // Also when there was nothing to read, in case the slot is taken
+            cache.replaceLedger(bytes, ledgerIndex);
+            (problem == null ? fetched : replaced).incrementAndGet();
+            return ledger;
+        } catch (IOException ex) {
+            System.err.println("Could not fetch ledger " + ledgerIndex + ": " + ex.getMessage());
+            unresolved.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the ledger and the one before it again, and replaces whichever
+     * of them rippled doesn't agree with.
+     *
+     * @return the ledgers as rippled sent them, or null if they couldn't be
+     * fetched or still don't link up
+     */
+    private LedgerRecord[] relink(long ledgerIndex) throws InterruptedException {
+        System.err.println("Ledger " + ledgerIndex + " does not link to the ledger before it, fetching both again");
+        try {
+            LedgerRecord[] fresh = new LedgerRecord[2];
+            for (int i = 0; i < 2; i++) {
+                long index = ledgerIndex - 1 + i;
+                byte[] bytes = rippledClient.ledger(index);
+                fresh[i] = extract(bytes, index);
+                LedgerRecord cached = null;
+                try {
+                    byte[] cachedBytes = cache.getCachedLedgerBytes(index);
+                    cached = cachedBytes != null ? extractor.extract(cachedBytes) : null;
+                } catch (IOException ex) {
+                    // Replaced below
+                }
+                if (cached == null || !fresh[i].getLedgerHash().equals(cached.getLedgerHash())
+                        || !fresh[i].getParentHash().equals(cached.getParentHash())) {
+                    System.err.println("Cached ledger " + index + " differs from rippled's, replacing it");
+                    cache.replaceLedger(bytes, index);
+                    replaced.incrementAndGet();
+                }
+            }
+            if (!links(fresh[0].getLedgerHash(), fresh[1].getParentHash())) {
+                System.err.println("Ledger " + ledgerIndex + " as sent by rippled does not link to the ledger before it");
+                unresolved.incrementAndGet();
+                return null;
+            }
+            relinked.incrementAndGet();
+            return fresh;
+        } catch (IOException ex) {
+            System.err.println("Could not repair the link of ledger " + ledgerIndex + ": " + ex.getMessage());
+            unresolved.incrementAndGet();
+            return null;
+        }
+    }
+
+    private LedgerRecord extract(byte[] bytes, long ledgerIndex) throws IOException {
+        LedgerRecord ledger = extractor.extract(bytes);
+        if (ledger.getLedgerIndex() != ledgerIndex || ledger.getLedgerHash() == null || ledger.getParentHash() == null) {
+            throw new IOException("rippled sent an incomplete ledger or ledger " + ledger.getLedgerIndex());
+        }
+        return ledger;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: CachePrefetcher <cache dir> <from> <to> [threads] [rippled urls]");
+            System.exit(1);
+        }
+        long from = Long.parseLong(args[1]);
+        long to = Long.parseLong(args[2]);
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        List<HttpUrl> urls = new ArrayList<>();
+        for (String url : (args.length > 4 ? args[4] : "https://s2.ripple.com:51234/").split(",")) {
+            urls.add(HttpUrl.get(url.trim()));
+        }
+        RippledClient client = new RippledClient(urls, RIPPLED_INITIAL_RATE, RIPPLED_MAX_RATE, RIPPLED_TARGET_LATENCY_MILLIS);
+        long unresolved;
+        try (LedgerCache cache = new SegmentedCacher(Paths.get(args[0]))) {
+            unresolved = new CachePrefetcher(cache, client, threads).prefetch(from, to);
+        }
+        System.exit(unresolved > 0 ? 2 : 0);
+    }
+
+}
@@ -0,0 +1,95 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import org.apache.commons.io.FileUtils;
+
+/**
+ *
+ * Caches every ledger in its own file. This gets unusable quickly, use the
+ * {@link SegmentedCacher} instead. Existing caches can be converted with the
+ * {@link CacheMigrator}.
+ *
+ * @author smelis
+ */
+public class Cacher implements LedgerCache {
+
+    private final Path cachePath;
+
+    public Cacher(Path cachePath) {
+        this.cachePath = cachePath;
+    }
+
+    public File getCachedFile(long ledgerIndex) {
+        return Paths.get(cachePath.toString(), ledgerIndex + ".json").toFile();
+    }
+
+    @Override
+    public boolean isCached(long ledgerIndex) {
+        return getCachedFile(ledgerIndex).exists();
+    }
+
+    @Override
+    public String getCachedLedger(long ledgerIndex) throws IOException {
+        if (isCached(ledgerIndex)) {
+            return FileUtils.readFileToString(getCachedFile(ledgerIndex), Charset.defaultCharset());
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] getCachedLedgerBytes(long ledgerIndex) throws IOException {
+        if (isCached(ledgerIndex)) {
+            return FileUtils.readFileToByteArray(getCachedFile(ledgerIndex));
+        }
+        return null;
+    }
+
+    @Override
+    public void cacheLedger(String ledger, long ledgerIndex) throws IOException {
+        File cacheFile = getCachedFile(ledgerIndex);
+        if (!cacheFile.exists()) {
+            write(cacheFile, ledger.getBytes(Charset.defaultCharset()));
+        }
+    }
+
+    @Override
+    public void cacheLedger(byte[] ledger, long ledgerIndex) throws IOException {
+        File cacheFile = getCachedFile(ledgerIndex);
+        if (!cacheFile.exists()) {
+            write(cacheFile, ledger);
+        }
+    }
+
+    @Override
+    public void replaceLedger(byte[] ledger, long ledgerIndex) throws IOException {
+        write(getCachedFile(ledgerIndex), ledger);
+    }
+
+    /**
+     * Writes next to the file and moves it in place, so an interrupted write
+     * never leaves a truncated ledger behind. Every write has a temporary file
+     * of its own, so writers of the same ledger don't mix their bytes.
+     */
+    private void write(File cacheFile, byte[] ledger) throws IOException {
+        Path dir = cacheFile.getParentFile().toPath();
+        Files.createDirectories(dir);
+        Path partial = Files.createTempFile(dir, cacheFile.getName(), ".partial");
+        try {
+            Files.write(partial, ledger);
+            Files.move(partial, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
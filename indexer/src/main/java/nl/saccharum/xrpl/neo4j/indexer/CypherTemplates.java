@@ -0,0 +1,132 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The statements the {@link BatchWriter} writes with. Each has one fixed text,
+ * whatever the ledger holds, so Neo4j parses and plans it once and takes it
+ * from its query cache after that. What differs between rows, including which
+ * optional properties there are (tags, delivered amount, issuers), goes in a
+ * <code>props</code> map per row that is SET with <code>+=</code>.
+ *
+ * The row methods turn the parameter maps of the {@link LedgerTransformer}
+ * into the rows these statements expect, dropping null values: SET += would
+ * otherwise remove those properties rather than leave them unset.
+ *
+ * The activation and payment statements return the key (child, hash) of the
+ * rows they wrote, and whether they created them rather than found them, so
+ * the {@link WalletAggregates} count each only once and the
+ * {@link LineageIndex} only gets the activations that are in the graph: a row
+ * whose wallets weren't there is not written at all.
+ *
+ * @author smelis
+ */
+public final class CypherTemplates {
+
+    public static final String LEDGERS = "UNWIND $rows AS row\n"
+            + "MERGE (ledger:Ledger { ledgerIndex: row.ledgerIndex })\n"
+            + " ON CREATE SET ledger += row.props";
+
+    public static final String WALLETS = "UNWIND $rows AS address\n"
+            + "MERGE (wallet:Wallet { address: address })\n"
+            + "RETURN address, id(wallet) AS id";
+
+    private static final String MERGE_ACTIVATION = "MATCH (ledger:Ledger { ledgerIndex: row.ledgerIndex })\n"
+            + "MERGE (parent)-[activation:ACTIVATES]->(child)<-[:ACTIVATES]-(ledger)\n"
+            + " ON CREATE SET activation += row.props, activation._created = true\n"
+            + "WITH row, activation, coalesce(activation._created, false) AS created\n"
+            + "REMOVE activation._created\n"
+            + "RETURN row.child AS key, created";
+
+    public static final String ACTIVATIONS = "UNWIND $rows AS row\n"
+            + "MATCH (parent:Wallet { address: row.parent })\n"
+            + "MATCH (child:Wallet { address: row.child })\n"
+            + MERGE_ACTIVATION;
+
+    public static final String ACTIVATIONS_BY_ID = "UNWIND $rows AS row\n"
+            + "MATCH (parent) WHERE id(parent) = row.parentId\n"
+            + "MATCH (child) WHERE id(child) = row.childId\n"
+            + MERGE_ACTIVATION;
+
+    private static final String MERGE_PAYMENT = "MERGE (sender)-[:PAYS]->(payment:Payment { hash: row.hash })-[:RECEIVES]->(receiver)\n"
+            + " ON CREATE SET payment += row.props, payment._created = true\n"
+            + "WITH row, payment, coalesce(payment._created, false) AS created\n"
+            + "REMOVE payment._created\n"
+            + "RETURN row.hash AS key, created";
+
+    public static final String PAYMENTS = "UNWIND $rows AS row\n"
+            + "MATCH (sender:Wallet { address: row.sender })\n"
+            + "MATCH (receiver:Wallet { address: row.receiver })\n"
+            + MERGE_PAYMENT;
+
+    public static final String PAYMENTS_BY_ID = "UNWIND $rows AS row\n"
+            + "MATCH (sender) WHERE id(sender) = row.senderId\n"
+            + "MATCH (receiver) WHERE id(receiver) = row.receiverId\n"
+            + MERGE_PAYMENT;
+
+    public static final String CONTAINS = "UNWIND $rows AS row\n"
+            + "MATCH (ledger:Ledger { ledgerIndex: row.ledgerIndex })\n"
+            + "MATCH (payment:Payment { hash: row.hash })\n"
+            + "MERGE (ledger)-[:CONTAINS]-(payment)";
+
+    // Raising the version takes the write lock before the aggregates are read
+    public static final String LOCK_WALLETS = "UNWIND $rows AS address\n"
+            + "MATCH (wallet:Wallet { address: address })\n"
+            + "SET wallet.aggregatesVersion = coalesce(wallet.aggregatesVersion, 0) + 1\n"
+            + "RETURN address, id(wallet) AS id, properties(wallet) AS props";
+
+    public static final String WALLET_AGGREGATES = "UNWIND $rows AS row\n"
+            + "MATCH (wallet) WHERE id(wallet) = row.id\n"
+            + "SET wallet += row.props";
+
+    public static final String CHECKPOINT = "MERGE (checkpoint:Checkpoint { name: $name })\n"
+            + "SET checkpoint.ranges = $ranges";
+
+    // Parameters that say what to connect, not properties of the node or relationship
+    private static final Set<String> ACTIVATION_ENDPOINTS = new HashSet<>(Arrays.asList("parent", "child"));
+    private static final Set<String> PAYMENT_ENDPOINTS = new HashSet<>(Arrays.asList("sender", "receiver"));
+
+    private CypherTemplates() {
+    }
+
+    public static Map<String, Object> ledgerRow(Map<String, Object> ledger) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("ledgerIndex", ledger.get("ledgerIndex"));
+        row.put("props", props(ledger, null));
+        return row;
+    }
+
+    public static Map<String, Object> activationRow(Map<String, Object> activation) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("parent", activation.get("parent"));
+        row.put("child", activation.get("child"));
+        row.put("ledgerIndex", activation.get("ledgerIndex"));
+        row.put("props", props(activation, ACTIVATION_ENDPOINTS));
+        return row;
+    }
+
+    public static Map<String, Object> paymentRow(Map<String, Object> payment) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("sender", payment.get("sender"));
+        row.put("receiver", payment.get("receiver"));
+        row.put("hash", payment.get("hash"));
+        row.put("ledgerIndex", payment.get("ledgerIndex"));
+        row.put("props", props(payment, PAYMENT_ENDPOINTS));
+        return row;
+    }
+
+    private static Map<String, Object> props(Map<String, Object> params, Set<String> exclude) {
+        Map<String, Object> props = new HashMap<>();
+        params.forEach((key, value) -> {
+            if (value != null && (exclude == null || !exclude.contains(key))) {
+                props.put(key, value);
+            }
+        });
+        return props;
+    }
+
+}
@@ -0,0 +1,188 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link WorkQueue} in a local text file, for indexer processes on one
+ * machine. Every operation locks the file, reads it, changes it and writes it
+ * back, so processes take turns. The file lock is held per process, so
+ * threads of one process, even with queues of their own on the same file,
+ * take turns on a monitor for the file first.
+ *
+ * One partition per line: <code>from to state worker leaseUntil</code>, with
+ * state open, leased or done and leaseUntil in milliseconds since the epoch.
+ *
+ * @author smelis
+ */
+public class FileWorkQueue implements WorkQueue {
+
+    private static final String OPEN = "open";
+    private static final String LEASED = "leased";
+    private static final String DONE = "done";
+
+    private static final Map<Path, Object> MONITORS = new ConcurrentHashMap<>();
+
+    private final FileChannel channel;
+    private final Object monitor;
+    private final long leaseMillis;
+
+    public FileWorkQueue(Path file, long leaseMillis) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.monitor = MONITORS.computeIfAbsent(file.toRealPath(), (path) -> new Object());
+        this.leaseMillis = leaseMillis;
+    }
+
+    private static class Partition {
+
+        final long from;
+        final long to;
+        String state = OPEN;
+        String worker = "-";
+        long leaseUntil = 0;
+
+        Partition(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        boolean isAvailable(long now) {
+            return OPEN.equals(state) || (LEASED.equals(state) && leaseUntil < now);
+        }
+    }
+
+    @Override
+    public void init(long from, long to, int partitionSize) throws IOException {
+        synchronized (monitor) {
+            try (FileLock lock = channel.lock()) {
+                TreeMap<Long, Partition> partitions = read();
+                Map<Long, Long> ends = new HashMap<>();
+                partitions.values().forEach((partition) -> ends.put(partition.from, partition.to));
+                for (long[] missing : WorkQueue.missingPartitions(ends, from, to, partitionSize)) {
+                    partitions.put(missing[0], new Partition(missing[0], missing[1]));
+                }
+                write(partitions);
+            }
+        }
+    }
+
+    @Override
+    public long[] claim(String worker) throws IOException {
+        synchronized (monitor) {
+            try (FileLock lock = channel.lock()) {
+                TreeMap<Long, Partition> partitions = read();
+                long now = System.currentTimeMillis();
+                for (Partition partition : partitions.values()) {
+                    if (partition.isAvailable(now)) {
+                        partition.state = LEASED;
+                        partition.worker = worker;
+                        partition.leaseUntil = now + leaseMillis;
+                        write(partitions);
+                        return new long[]{partition.from, partition.to};
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public boolean renew(long[] partition, String worker) throws IOException {
+        synchronized (monitor) {
+            try (FileLock lock = channel.lock()) {
+                TreeMap<Long, Partition> partitions = read();
+                Partition leased = partitions.get(partition[0]);
+                if (leased == null || !LEASED.equals(leased.state) || !worker.equals(leased.worker)) {
+                    return false;
+                }
+                leased.leaseUntil = System.currentTimeMillis() + leaseMillis;
+                write(partitions);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void complete(long[] partition, String worker) throws IOException {
+        synchronized (monitor) {
+            try (FileLock lock = channel.lock()) {
+                TreeMap<Long, Partition> partitions = read();
+                Partition done = partitions.get(partition[0]);
+                if (done != null) {
+                    done.state = DONE;
+                    done.worker = worker;
+                    done.leaseUntil = 0;
+                    write(partitions);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int remaining() throws IOException {
+        synchronized (monitor) {
+            try (FileLock lock = channel.lock()) {
+                int remaining = 0;
+                for (Partition partition : read().values()) {
+                    if (!DONE.equals(partition.state)) {
+                        remaining++;
+                    }
+                }
+                return remaining;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (monitor) {
+            channel.close();
+        }
+    }
+
+    private TreeMap<Long, Partition> read() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        channel.position(0);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // Until the whole file is read
+        }
+        TreeMap<Long, Partition> partitions = new TreeMap<>();
+        for (String line : new String(buffer.array(), StandardCharsets.UTF_8).split("\n")) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 5) {
+                continue;
+            }
+            Partition partition = new Partition(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+            partition.state = fields[2];
+            partition.worker = fields[3];
+            partition.leaseUntil = Long.parseLong(fields[4]);
+            partitions.put(partition.from, partition);
+        }
+        return partitions;
+    }
+
+    private void write(TreeMap<Long, Partition> partitions) throws IOException {
+        List<String> lines = new ArrayList<>(partitions.size());
+        partitions.values().forEach((p) -> lines.add(p.from + " " + p.to + " " + p.state + " " + p.worker + " " + p.leaseUntil));
+        ByteBuffer buffer = ByteBuffer.wrap((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        // Overwrite, then cut off what's left; the lines hardly ever get shorter
+        channel.position(0);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.truncate(buffer.limit());
+        channel.force(false);
+    }
+
+}
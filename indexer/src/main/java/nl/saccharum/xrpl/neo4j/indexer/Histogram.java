@@ -0,0 +1,88 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets, cheap enough to update from every
+ * pipeline thread. Thread safe.
+ *
+ * @author smelis
+ */
+public class Histogram {
+
+    // Upper bounds in seconds, Prometheus' defaults stretched at both ends
+    static final double[] BOUNDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    // One more than there are bounds, for everything slower
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void observeNanos(long nanos) {
+        double seconds = nanos / (double) TimeUnit.SECONDS.toNanos(1);
+        int bucket = 0;
+        while (bucket < BOUNDS.length && seconds > BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        count.increment();
+        sum.add(seconds);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the total of all observations, in seconds
+     */
+    public double getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return per bound, the number of observations at or below it, followed
+     * by the total count
+     */
+    public long[] getCumulativeCounts() {
+        long[] cumulative = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            cumulative[i] = total;
+        }
+        return cumulative;
+    }
+
+    public double getMeanMillis() {
+        long n = getCount();
+        return n == 0 ? 0 : getSum() * 1000 / n;
+    }
+
+    /**
+     * @return the upper bound, in milliseconds, of the bucket holding the
+     * given quantile; infinity if it is beyond the last bound
+     */
+    public double getQuantileMillis(double quantile) {
+        long[] cumulative = getCumulativeCounts();
+        long total = cumulative[cumulative.length - 1];
+        if (total == 0) {
+            return 0;
+        }
+        for (int i = 0; i < BOUNDS.length; i++) {
+            if (cumulative[i] >= quantile * total) {
+                return BOUNDS[i] * 1000;
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+}
@@ -0,0 +1,264 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters, gauges and per stage latency histograms of the ingestion, readable
+ * over JMX and in Prometheus' text format (see {@link MetricsServer}).
+ *
+ * The per second rates are computed over the time between two calls to
+ * {@link #tick()}; Prometheus computes its own from the counters. Thread
+ * safe.
+ *
+ * @author smelis
+ */
+public class IndexerMetrics implements IndexerMetricsMXBean {
+
+    public static final String OBJECT_NAME = "nl.saccharum.xrpl.neo4j.indexer:type=IndexerMetrics";
+    private static final String PREFIX = "xrpl_indexer_";
+
+    /**
+     * The timed steps of getting a ledger into the graph.
+     */
+    public enum Stage {
+        CACHE_LOOKUP, RIPPLED_FETCH, PARSE, WRITE_LEDGERS, WRITE_WALLETS, WRITE_ACTIVATIONS, WRITE_PAYMENTS, WRITE_CONTAINS, WRITE_AGGREGATES, COMMIT;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Map<Stage, Histogram> stages = new EnumMap<>(Stage.class);
+    private final LongAdder ledgers = new LongAdder();
+    private final LongAdder payments = new LongAdder();
+    private final LongAdder activations = new LongAdder();
+    private final LongAdder wallets = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private volatile long lastWrittenLedger = -1;
+    private volatile long validatedLedger = -1;
+
+    // Rates over the last tick
+    private volatile double ledgersPerSecond = 0;
+    private volatile double paymentsPerSecond = 0;
+    private volatile double activationsPerSecond = 0;
+    private long lastTick = System.nanoTime();
+    private long ledgersAtLastTick = 0;
+    private long paymentsAtLastTick = 0;
+    private long activationsAtLastTick = 0;
+
+    public IndexerMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new Histogram());
+        }
+    }
+
+    /**
+     * Records the time since <code>startNanos</code>, a
+     * {@link System#nanoTime()}, for the stage.
+     */
+    public void observe(Stage stage, long startNanos) {
+        stages.get(stage).observeNanos(System.nanoTime() - startNanos);
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    /**
+     * Counts a committed batch.
+     */
+    public void written(int ledgerCount, int paymentCount, int activationCount, int walletCount, long lastLedger) {
+        ledgers.add(ledgerCount);
+        payments.add(paymentCount);
+        activations.add(activationCount);
+        wallets.add(walletCount);
+        lastWrittenLedger = lastLedger;
+    }
+
+    public void setValidatedLedger(long validatedLedger) {
+        this.validatedLedger = validatedLedger;
+    }
+
+    /**
+     * Updates the per second rates.
+     */
+    public synchronized void tick() {
+        long now = System.nanoTime();
+        double seconds = (now - lastTick) / 1e9;
+        if (seconds <= 0) {
+            return;
+        }
+        long ledgerCount = ledgers.sum();
+        long paymentCount = payments.sum();
+        long activationCount = activations.sum();
+        ledgersPerSecond = (ledgerCount - ledgersAtLastTick) / seconds;
+        paymentsPerSecond = (paymentCount - paymentsAtLastTick) / seconds;
+        activationsPerSecond = (activationCount - activationsAtLastTick) / seconds;
+        ledgersAtLastTick = ledgerCount;
+        paymentsAtLastTick = paymentCount;
+        activationsAtLastTick = activationCount;
+        lastTick = now;
+    }
+
+    /**
+     * Registers this as an MXBean with the platform MBean server.
+     */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+    }
+
+    @Override
+    public long getLedgersWritten() {
+        return ledgers.sum();
+    }
+
+    @Override
+    public long getPaymentsWritten() {
+        return payments.sum();
+    }
+
+    @Override
+    public long getActivationsWritten() {
+        return activations.sum();
+    }
+
+    @Override
+    public long getWalletsCreated() {
+        return wallets.sum();
+    }
+
+    @Override
+    public double getLedgersPerSecond() {
+        return ledgersPerSecond;
+    }
+
+    @Override
+    public double getPaymentsPerSecond() {
+        return paymentsPerSecond;
+    }
+
+    @Override
+    public double getActivationsPerSecond() {
+        return activationsPerSecond;
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        long hits = cacheHits.sum();
+        long total = hits + cacheMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getLastWrittenLedger() {
+        return lastWrittenLedger;
+    }
+
+    @Override
+    public long getValidatedLedger() {
+        return validatedLedger;
+    }
+
+    /**
+     * @return how far the indexer is behind the network, or -1 if either end
+     * isn't known yet
+     */
+    @Override
+    public long getLedgersBehindValidated() {
+        long validated = validatedLedger;
+        long written = lastWrittenLedger;
+        return validated < 0 || written < 0 ? -1 : Math.max(0, validated - written);
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMillis() {
+        Map<String, Double> means = new LinkedHashMap<>();
+        stages.forEach((stage, histogram) -> means.put(stage.label(), histogram.getMeanMillis()));
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getStageP99Millis() {
+        Map<String, Double> p99s = new LinkedHashMap<>();
+        stages.forEach((stage, histogram) -> p99s.put(stage.label(), histogram.getQuantileMillis(0.99)));
+        return p99s;
+    }
+
+    @Override
+    public long getDroppedLogLines() {
+        return SampledLog.getDropped();
+    }
+
+    /**
+     * @return a one line summary for the console
+     */
+    public String summary() {
+        return String.format(Locale.ROOT, "%.1f ledgers/s, %.1f payments/s, %.1f activations/s, cache hit ratio %.2f, last written %d, %d behind validated",
+                ledgersPerSecond, paymentsPerSecond, activationsPerSecond, getCacheHitRatio(), lastWrittenLedger, getLedgersBehindValidated());
+    }
+
+    /**
+     * @return all metrics in the Prometheus text exposition format
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(8192);
+        counter(out, "ledgers_total", "Ledgers written", ledgers.sum());
+        counter(out, "payments_total", "Payments written", payments.sum());
+        counter(out, "activations_total", "Activations written", activations.sum());
+        counter(out, "wallets_created_total", "Wallets created", wallets.sum());
+        counter(out, "cache_hits_total", "Ledgers read from the cache", cacheHits.sum());
+        counter(out, "cache_misses_total", "Ledgers fetched from rippled", cacheMisses.sum());
+        counter(out, "log_dropped_total", "Log lines dropped because the log queue was full", SampledLog.getDropped());
+        gauge(out, "last_written_ledger", "Highest ledger index written", lastWrittenLedger);
+        gauge(out, "validated_ledger", "Latest validated ledger index of the network", validatedLedger);
+        gauge(out, "ledgers_behind_validated", "Ledgers between the last written and the latest validated ledger", getLedgersBehindValidated());
+        String name = PREFIX + "stage_seconds";
+        out.append("# HELP ").append(name).append(" Time spent per ingestion stage\n");
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        stages.forEach((stage, histogram) -> {
+            long[] cumulative = histogram.getCumulativeCounts();
+            for (int i = 0; i < cumulative.length; i++) {
+                String le = i < Histogram.BOUNDS.length ? BigDecimal.valueOf(Histogram.BOUNDS[i]).stripTrailingZeros().toPlainString() : "+Inf";
+                out.append(name).append("_bucket{stage=\"").append(stage.label()).append("\",le=\"").append(le).append("\"} ")
+                        .append(cumulative[i]).append('\n');
+            }
+            out.append(name).append("_sum{stage=\"").append(stage.label()).append("\"} ").append(histogram.getSum()).append('\n');
+            out.append(name).append("_count{stage=\"").append(stage.label()).append("\"} ").append(cumulative[cumulative.length - 1]).append('\n');
+        });
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "counter", value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "gauge", value);
+    }
+
+    private static void metric(StringBuilder out, String name, String help, String type, long value) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+        out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+}
@@ -0,0 +1,41 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.Map;
+
+/**
+ * What the indexer exposes over JMX, under
+ * <code>nl.saccharum.xrpl.neo4j.indexer:type=IndexerMetrics</code>.
+ *
+ * @author smelis
+ */
+public interface IndexerMetricsMXBean {
+
+    long getLedgersWritten();
+
+    long getPaymentsWritten();
+
+    long getActivationsWritten();
+
+    long getWalletsCreated();
+
+    double getLedgersPerSecond();
+
+    double getPaymentsPerSecond();
+
+    double getActivationsPerSecond();
+
+    double getCacheHitRatio();
+
+    long getLastWrittenLedger();
+
+    long getValidatedLedger();
+
+    long getLedgersBehindValidated();
+
+    Map<String, Double> getStageMeanMillis();
+
+    Map<String, Double> getStageP99Millis();
+
+    long getDroppedLogLines();
+
+}
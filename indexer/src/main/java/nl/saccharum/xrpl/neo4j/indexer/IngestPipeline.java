@@ -0,0 +1,128 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ingests a range of ledgers in three stages: a pool of fetchers, a pool of
+ * transformers and a single writer running on the calling thread.
+ *
+ * Ledgers enter the pipeline in index order, and the writer takes them out in
+ * that same order, waiting for the next ledger if a later one happens to be
+ * done first. The queue between entry and writer is bounded, so fetchers and
+ * transformers can run at most <code>capacity</code> ledgers ahead of the
+ * writer.
+ *
+ * @author smelis
+ * @param <T> the fetched ledger
+ */
+public class IngestPipeline<T> {
+
+    /**
+     * A pipeline stage.
+     */
+    public interface Stage<I, O> {
+
+        O apply(I input) throws Exception;
+    }
+
+    /**
+     * The end of the pipeline.
+     */
+    public interface Sink<I> {
+
+        void accept(I input) throws Exception;
+    }
+
+    private static final CompletableFuture<LedgerRows> END = new CompletableFuture<>();
+
+    private final Stage<Long, T> fetcher;
+    private final Stage<T, LedgerRows> transformer;
+    private final Sink<LedgerRows> writer;
+    private final int fetchThreads;
+    private final int transformThreads;
+    private final int capacity;
+
+    public IngestPipeline(Stage<Long, T> fetcher, Stage<T, LedgerRows> transformer, Sink<LedgerRows> writer, int fetchThreads, int transformThreads, int capacity) {
+        this.fetcher = fetcher;
+        this.transformer = transformer;
+        this.writer = writer;
+        this.fetchThreads = fetchThreads;
+        this.transformThreads = transformThreads;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Ingests ledgers <code>from</code> (inclusive) up to <code>to</code>
+     * (exclusive). Returns when all ledgers have been handed to the writer, or
+     * throws as soon as any stage fails; ledgers after the failed one are not
+     * written.
+     */
+    public void run(long from, long to) throws Exception {
+        ExecutorService fetchers = Executors.newFixedThreadPool(fetchThreads, named("fetch"));
+        ExecutorService transformers = Executors.newFixedThreadPool(transformThreads, named("transform"));
+        BlockingQueue<CompletableFuture<LedgerRows>> inFlight = new ArrayBlockingQueue<>(capacity);
+        Thread producer = new Thread(() -> {
+            try {
+                for (long i = from; i < to; i++) {
+                    final long ledgerIndex = i;
+                    inFlight.put(CompletableFuture
+                            .supplyAsync(() -> apply(fetcher, ledgerIndex), fetchers)
+                            .thenApplyAsync((ledger) -> apply(transformer, ledger), transformers));
+                }
+                inFlight.put(END);
+            } catch (InterruptedException ex) {
+                // Writer gave up
+            }
+        }, "ingest-producer");
+        producer.start();
+        try {
+            while (true) {
+                CompletableFuture<LedgerRows> next = inFlight.take();
+                if (next == END) {
+                    break;
+                }
+                try {
+                    writer.accept(next.get());
+                } catch (ExecutionException ex) {
+                    throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+                }
+            }
+        } finally {
+            producer.interrupt();
+            producer.join();
+            fetchers.shutdownNow();
+            transformers.shutdownNow();
+            fetchers.awaitTermination(1, TimeUnit.MINUTES);
+            transformers.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private static <I, O> O apply(Stage<I, O> stage, I input) {
+        try {
+            return stage.apply(input);
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new CompletionException(ex);
+        }
+    }
+
+    private static ThreadFactory named(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return (runnable) -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
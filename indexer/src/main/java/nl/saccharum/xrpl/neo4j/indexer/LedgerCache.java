@@ -0,0 +1,45 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+
+/**
+ * Storage for raw ledger JSON, keyed by ledger index.
+ *
+ * @author smelis
+ */
+public interface LedgerCache extends AutoCloseable {
+
+    boolean isCached(long ledgerIndex) throws IOException;
+
+    /**
+     * @return the cached ledger JSON, or null if the ledger is not cached
+     */
+    String getCachedLedger(long ledgerIndex) throws IOException;
+
+    /**
+     * @return the cached ledger JSON as UTF-8 bytes, or null if the ledger is
+     * not cached
+     */
+    byte[] getCachedLedgerBytes(long ledgerIndex) throws IOException;
+
+    /**
+     * Caches the ledger, unless it is already cached.
+     */
+    void cacheLedger(String ledger, long ledgerIndex) throws IOException;
+
+    /**
+     * Caches the ledger JSON, given as UTF-8 bytes, unless it is already
+     * cached.
+     */
+    void cacheLedger(byte[] ledger, long ledgerIndex) throws IOException;
+
+    /**
+     * Caches the ledger JSON, given as UTF-8 bytes, in place of what is
+     * cached for the ledger, e.g. because that turned out to be corrupt.
+     */
+    void replaceLedger(byte[] ledger, long ledgerIndex) throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+}
@@ -0,0 +1,313 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Pulls the fields we index out of the <code>result</code> of the
+ * <code>ledger</code> method with a streaming parser, skipping everything
+ * else, instead of binding the whole ledger to xrpl4j's LedgerResult.
+ *
+ * Understands both what rippled sends and what xrpl4j writes when it
+ * serializes a LedgerResult: the transaction fields may be at the top level of
+ * a transaction or under <code>tx</code>/<code>tx_json</code>, and the
+ * metadata may be called <code>metaData</code> or <code>meta</code>.
+ *
+ * Only successful Payments end up in the {@link LedgerRecord}. Thread safe.
+ *
+ * @author smelis
+ */
+public class LedgerExtractor {
+
+    private static final String SUCCESS = "tesSUCCESS";
+    private static final DateTimeFormatter CLOSE_TIME = new DateTimeFormatterBuilder()
+            .parseCaseInsensitive()
+            .appendPattern("yyyy-MMM-dd HH:mm:ss")
+            .optionalStart()
+            .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+            .optionalEnd()
+            .optionalStart()
+            .appendLiteral(' ')
+            .appendZoneId()
+            .optionalEnd()
+            .toFormatter(Locale.US);
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * @param json the <code>result</code> of the ledger method, with expanded
+     * transactions and metadata, as UTF-8 bytes
+     */
+    public LedgerRecord extract(byte[] json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Ledger result is not an object");
+            }
+            LedgerRecord ledger = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("ledger".equals(field) && value == JsonToken.START_OBJECT) {
+                    ledger = readLedger(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (ledger == null || ledger.getLedgerIndex() < 0) {
+                throw new IOException("Ledger result without ledger");
+            }
+            return ledger;
+        }
+    }
+
+    private LedgerRecord readLedger(JsonParser parser) throws IOException {
+        LedgerRecord ledger = new LedgerRecord();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "ledger_index":
+                    ledger.setLedgerIndex(longValue(parser));
+                    break;
+                case "ledger_hash":
+                    ledger.setLedgerHash(parser.getText());
+                    break;
+                case "parent_hash":
+                    ledger.setParentHash(parser.getText());
+                    break;
+                case "close_time_human":
+                    ledger.setCloseTime(closeTime(parser.getText()));
+                    break;
+                case "total_coins":
+                    ledger.setTotalCoins(longValue(parser));
+                    break;
+                case "transactions":
+                    if (value == JsonToken.START_ARRAY) {
+                        readTransactions(parser, ledger);
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return ledger;
+    }
+
+    private void readTransactions(JsonParser parser, LedgerRecord ledger) throws IOException {
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Ledger without expanded transactions");
+            }
+            Transaction tx = new Transaction();
+            readTransaction(parser, tx);
+            if ("Payment".equals(tx.type) && SUCCESS.equals(tx.result)) {
+                ledger.getPayments().add(tx.payment);
+            }
+        }
+    }
+
+    /**
+     * Reads the fields of a transaction object, descending into nested
+     * transaction and metadata objects.
+     */
+    private void readTransaction(JsonParser parser, Transaction tx) throws IOException {
+        PaymentRecord payment = tx.payment;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "tx":
+                case "tx_json":
+                    if (value == JsonToken.START_OBJECT) {
+                        readTransaction(parser, tx);
+                    }
+                    break;
+                case "metaData":
+                case "meta":
+                    if (value == JsonToken.START_OBJECT) {
+                        readMetadata(parser, tx);
+                    }
+                    break;
+                case "TransactionType":
+                    tx.type = parser.getText();
+                    break;
+                case "hash":
+                    payment.setHash(parser.getText());
+                    break;
+                case "Account":
+                    payment.setAccount(parser.getText());
+                    break;
+                case "Destination":
+                    payment.setDestination(parser.getText());
+                    break;
+                case "Fee":
+                    payment.setFee(longValue(parser));
+                    break;
+                case "SourceTag":
+                    payment.setSourceTag(longValue(parser));
+                    break;
+                case "DestinationTag":
+                    payment.setDestinationTag(longValue(parser));
+                    break;
+                case "Amount":
+                    payment.setAmount(readAmount(parser));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    private void readMetadata(JsonParser parser, Transaction tx) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "TransactionResult":
+                    tx.result = parser.getText();
+                    break;
+                case "delivered_amount":
+                case "DeliveredAmount":
+                    // Ledgers from before 2014 say "unavailable"
+                    if (value == JsonToken.START_OBJECT || !"unavailable".equals(parser.getText())) {
+                        tx.payment.setDeliveredAmount(readAmount(parser));
+                    }
+                    break;
+                case "AffectedNodes":
+                    if (value == JsonToken.START_ARRAY) {
+                        readAffectedNodes(parser, tx);
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Collects the accounts of created AccountRoots, the wallets this
+     * transaction activated.
+     */
+    private void readAffectedNodes(JsonParser parser, Transaction tx) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String kind = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("CreatedNode".equals(kind) && value == JsonToken.START_OBJECT) {
+                    readCreatedNode(parser, tx);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private void readCreatedNode(JsonParser parser, Transaction tx) throws IOException {
+        String entryType = null;
+        String account = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("LedgerEntryType".equals(field)) {
+                entryType = parser.getText();
+            } else if ("NewFields".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String newField = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("Account".equals(newField)) {
+                        account = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if ("AccountRoot".equals(entryType)) {
+            PaymentRecord payment = tx.payment;
+            if (!tx.seenAccountRoot) {
+                // Same rule as LedgerTransformer: only the first created AccountRoot decides
+                tx.seenAccountRoot = true;
+                payment.setActivation(account != null);
+            }
+            if (account != null) {
+                payment.getActivatedAccounts().add(account);
+            }
+        }
+    }
+
+    private PaymentRecord.Amount readAmount(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return PaymentRecord.Amount.xrp(longValue(parser));
+        }
+        String value = null;
+        String currency = null;
+        String issuer = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "value":
+                    value = parser.getText();
+                    break;
+                case "currency":
+                    currency = parser.getText();
+                    break;
+                case "issuer":
+                    issuer = parser.getText();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (value == null || currency == null) {
+            throw new IOException("Incomplete issued currency amount");
+        }
+        return PaymentRecord.Amount.issued(value, currency, issuer);
+    }
+
+    /**
+     * rippled sends most 64 bit numbers as strings.
+     */
+    private static long longValue(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        try {
+            return Long.parseLong(parser.getText());
+        } catch (NumberFormatException ex) {
+            throw new IOException("Not a number: " + parser.getText(), ex);
+        }
+    }
+
+    static ZonedDateTime closeTime(String text) {
+        TemporalAccessor parsed = CLOSE_TIME.parseBest(text, ZonedDateTime::from, LocalDateTime::from);
+        return parsed instanceof ZonedDateTime ? (ZonedDateTime) parsed : ((LocalDateTime) parsed).atZone(ZoneOffset.UTC);
+    }
+
+    /**
+     * A transaction while it is being read; we only know whether it is a
+     * successful payment once we've seen its type and its metadata.
+     */
+    private static final class Transaction {
+
+        private final PaymentRecord payment = new PaymentRecord();
+        private String type;
+        private String result;
+        private boolean seenAccountRoot;
+    }
+
+}
@@ -0,0 +1,57 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import org.xrpl.xrpl4j.model.client.ledger.LedgerResult;
+import org.xrpl.xrpl4j.model.jackson.ObjectMapperFactory;
+
+/**
+ * Turns the cached or fetched JSON of a ledger into rows, either with the
+ * {@link LedgerExtractor} or by binding it to xrpl4j's LedgerResult. The
+ * latter is a lot slower, but is what the extractor is checked against:
+ * in VERIFY mode both are run and any difference is reported.
+ *
+ * @author smelis
+ */
+public class LedgerParser {
+
+    public enum Mode {
+        STREAMING, DATABIND, VERIFY
+    }
+
+    private final LedgerTransformer transformer;
+    private final Mode mode;
+    private final LedgerExtractor extractor = new LedgerExtractor();
+    private final ObjectMapper objectMapper = ObjectMapperFactory.create();
+
+    public LedgerParser(LedgerTransformer transformer, Mode mode) {
+        this.transformer = transformer;
+        this.mode = mode;
+    }
+
+    /**
+     * @return the mode named by the <code>indexer.parser</code> system
+     * property, STREAMING by default
+     */
+    public static Mode modeFromSystemProperty() {
+        return Mode.valueOf(System.getProperty("indexer.parser", Mode.STREAMING.name()).toUpperCase());
+    }
+
+    public LedgerRows toRows(byte[] json) throws IOException {
+        switch (mode) {
+            case DATABIND:
+                return transformer.toRows(objectMapper.readValue(json, LedgerResult.class));
+            case VERIFY:
+                LedgerRows streamed = transformer.toRows(extractor.extract(json));
+                LedgerRows bound = transformer.toRows(objectMapper.readValue(json, LedgerResult.class));
+                if (!streamed.equals(bound)) {
+                    System.err.println("Streaming and databinding disagree on ledger " + bound.getLedgerIndex()
+                            + "\n streaming: " + streamed + "\n databind:  " + bound);
+                }
+                return bound;
+            default:
+                return transformer.toRows(extractor.extract(json));
+        }
+    }
+
+}
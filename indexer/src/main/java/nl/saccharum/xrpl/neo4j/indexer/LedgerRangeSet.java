@@ -0,0 +1,171 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A set of ledger indexes, kept as the sorted, disjoint ranges they form.
+ * Ingested ledgers come in long runs, so the whole history fits in a handful
+ * of ranges, and adding the ledger after a range just extends it. Ranges are
+ * from inclusive and to exclusive. Not thread safe.
+ *
+ * @author smelis
+ */
+public class LedgerRangeSet {
+
+    // From (inclusive) to to (exclusive); ranges never overlap or touch
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+    public void add(long ledgerIndex) {
+        add(ledgerIndex, ledgerIndex + 1);
+    }
+
+    /**
+     * Adds ledgers <code>from</code> (inclusive) up to <code>to</code>
+     * (exclusive).
+     */
+    public void add(long from, long to) {
+        if (from >= to) {
+            return;
+        }
+        // Swallow the ranges this one overlaps or touches
+        Map.Entry<Long, Long> before = ranges.floorEntry(from);
+        if (before != null && before.getValue() >= from) {
+            if (before.getValue() >= to) {
+                return;
+            }
+            from = before.getKey();
+        }
+        Map.Entry<Long, Long> next = ranges.ceilingEntry(from);
+        while (next != null && next.getKey() <= to) {
+            to = Math.max(to, next.getValue());
+            ranges.remove(next.getKey());
+            next = ranges.ceilingEntry(from);
+        }
+        ranges.put(from, to);
+    }
+
+    public void addAll(LedgerRangeSet other) {
+        other.ranges.forEach(this::add);
+    }
+
+    public boolean contains(long ledgerIndex) {
+        Map.Entry<Long, Long> range = ranges.floorEntry(ledgerIndex);
+        return range != null && ledgerIndex < range.getValue();
+    }
+
+    /**
+     * @return whether every ledger in the other set is in this one
+     */
+    public boolean containsAll(LedgerRangeSet other) {
+        for (Map.Entry<Long, Long> range : other.ranges.entrySet()) {
+            Map.Entry<Long, Long> covering = ranges.floorEntry(range.getKey());
+            if (covering == null || covering.getValue() < range.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void clear() {
+        ranges.clear();
+    }
+
+    public boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    /**
+     * @return the highest ledger index in the set, or -1 if it is empty
+     */
+    public long last() {
+        return ranges.isEmpty() ? -1 : ranges.lastEntry().getValue() - 1;
+    }
+
+    /**
+     * @return the number of ledgers in the set
+     */
+    public long size() {
+        long size = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            size += range.getValue() - range.getKey();
+        }
+        return size;
+    }
+
+    public int rangeCount() {
+        return ranges.size();
+    }
+
+    /**
+     * @return the ranges of ledgers between <code>from</code> (inclusive) and
+     * <code>to</code> (exclusive) that are not in the set
+     */
+    public List<long[]> gaps(long from, long to) {
+        List<long[]> gaps = new ArrayList<>();
+        long next = from;
+        Map.Entry<Long, Long> before = ranges.floorEntry(from);
+        if (before != null && before.getValue() > next) {
+            next = before.getValue();
+        }
+        for (Map.Entry<Long, Long> range : ranges.tailMap(from, false).entrySet()) {
+            if (next >= to) {
+                break;
+            }
+            if (range.getKey() > next) {
+                gaps.add(new long[]{next, Math.min(range.getKey(), to)});
+            }
+            next = Math.max(next, range.getValue());
+        }
+        if (next < to) {
+            gaps.add(new long[]{next, to});
+        }
+        return gaps;
+    }
+
+    /**
+     * @return the ranges as from, to pairs, the way a Checkpoint node stores
+     * them
+     */
+    public long[] toArray() {
+        long[] array = new long[ranges.size() * 2];
+        int i = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            array[i++] = range.getKey();
+            array[i++] = range.getValue();
+        }
+        return array;
+    }
+
+    public static LedgerRangeSet fromArray(long[] array) {
+        LedgerRangeSet set = new LedgerRangeSet();
+        for (int i = 0; i + 1 < array.length; i += 2) {
+            set.add(array[i], array[i + 1]);
+        }
+        return set;
+    }
+
+    public LedgerRangeSet copy() {
+        LedgerRangeSet copy = new LedgerRangeSet();
+        copy.ranges.putAll(ranges);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        ranges.forEach((from, to) -> {
+            if (out.length() > 0) {
+                out.append(',');
+            }
+            out.append(from);
+            if (to - 1 > from) {
+                out.append('-').append(to - 1);
+            }
+        });
+        return out.toString();
+    }
+
+}
@@ -0,0 +1,69 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ledger header fields we index plus the successful payments in the
+ * ledger, as extracted by the {@link LedgerExtractor}.
+ *
+ * @author smelis
+ */
+public class LedgerRecord {
+
+    private long ledgerIndex = -1;
+    private String ledgerHash;
+    private String parentHash;
+    private ZonedDateTime closeTime;
+    private long totalCoins;
+    private final List<PaymentRecord> payments = new ArrayList<>();
+
+    public long getLedgerIndex() {
+        return ledgerIndex;
+    }
+
+    void setLedgerIndex(long ledgerIndex) {
+        this.ledgerIndex = ledgerIndex;
+    }
+
+    public String getLedgerHash() {
+        return ledgerHash;
+    }
+
+    void setLedgerHash(String ledgerHash) {
+        this.ledgerHash = ledgerHash;
+    }
+
+    public String getParentHash() {
+        return parentHash;
+    }
+
+    void setParentHash(String parentHash) {
+        this.parentHash = parentHash;
+    }
+
+    public ZonedDateTime getCloseTime() {
+        return closeTime;
+    }
+
+    void setCloseTime(ZonedDateTime closeTime) {
+        this.closeTime = closeTime;
+    }
+
+    /**
+     * @return the total XRP in existence, in drops
+     */
+    public long getTotalCoins() {
+        return totalCoins;
+    }
+
+    void setTotalCoins(long totalCoins) {
+        this.totalCoins = totalCoins;
+    }
+
+    public List<PaymentRecord> getPayments() {
+        return payments;
+    }
+
+}
@@ -0,0 +1,97 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The parameter rows to write for a single ledger: the ledger itself, the
+ * wallets it activates, the activations and the payments.
+ *
+ * @author smelis
+ */
+public class LedgerRows {
+
+    private final long ledgerIndex;
+    private Map<String, Object> ledger;
+    private final List<String> wallets = new ArrayList<>();
+    private final List<Map<String, Object>> activations = new ArrayList<>();
+    private final List<Map<String, Object>> payments = new ArrayList<>();
+
+    public LedgerRows(long ledgerIndex) {
+        this.ledgerIndex = ledgerIndex;
+    }
+
+    public long getLedgerIndex() {
+        return ledgerIndex;
+    }
+
+    public Map<String, Object> getLedger() {
+        return ledger;
+    }
+
+    public void setLedger(Map<String, Object> ledger) {
+        this.ledger = ledger;
+    }
+
+    public List<String> getWallets() {
+        return wallets;
+    }
+
+    public void addWallet(String address) {
+        wallets.add(address);
+    }
+
+    public List<Map<String, Object>> getActivations() {
+        return activations;
+    }
+
+    public void addActivation(Map<String, Object> activation) {
+        activations.add(activation);
+    }
+
+    public List<Map<String, Object>> getPayments() {
+        return payments;
+    }
+
+    public void addPayment(Map<String, Object> payment) {
+        payments.add(payment);
+    }
+
+    /**
+     * @return the number of rows, a rough measure of the work it takes to
+     * write this ledger
+     */
+    public int size() {
+        return (ledger != null ? 1 : 0) + wallets.size() + activations.size() + payments.size();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LedgerRows)) {
+            return false;
+        }
+        LedgerRows other = (LedgerRows) obj;
+        return ledgerIndex == other.ledgerIndex
+                && Objects.equals(ledger, other.ledger)
+                && wallets.equals(other.wallets)
+                && activations.equals(other.activations)
+                && payments.equals(other.payments);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ledgerIndex, ledger, wallets, activations, payments);
+    }
+
+    @Override
+    public String toString() {
+        return "LedgerRows{" + "ledgerIndex=" + ledgerIndex + ", ledger=" + ledger + ", wallets=" + wallets
+                + ", activations=" + activations + ", payments=" + payments + '}';
+    }
+
+}
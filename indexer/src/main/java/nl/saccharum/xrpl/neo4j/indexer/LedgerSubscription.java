@@ -0,0 +1,145 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * Subscribes to the <code>ledger</code> stream of rippled's WebSocket API and
+ * tells the listener about every validated ledger: the one that was current
+ * when the subscription started, and every one that closes after that.
+ *
+ * When the connection drops it is opened again, after a delay that doubles
+ * with every failed attempt. Ledgers that were validated in the meantime are
+ * not announced; the listener sees the jump in ledger index and should take
+ * care of the gap itself.
+ *
+ * @author smelis
+ */
+public class LedgerSubscription implements AutoCloseable {
+
+    private static final String SUBSCRIBE = "{\"id\":1,\"command\":\"subscribe\",\"streams\":[\"ledger\"]}";
+    private static final long BASE_RECONNECT_MILLIS = 1_000;
+    private static final long MAX_RECONNECT_MILLIS = 60_000;
+
+    /**
+     * Gets the validated ledgers, on the thread of the WebSocket.
+     */
+    public interface Listener {
+
+        void validated(long ledgerIndex);
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String url;
+    private final Listener listener;
+    private final OkHttpClient httpClient;
+    private final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "ledger-subscription");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private WebSocket webSocket;
+    private long reconnectMillis = BASE_RECONNECT_MILLIS;
+    private boolean closed = false;
+
+    /**
+     * @param url the WebSocket endpoint, e.g. wss://s2.ripple.com/
+     */
+    public LedgerSubscription(String url, Listener listener) {
+        this.url = url;
+        this.listener = listener;
+        this.httpClient = new OkHttpClient.Builder()
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(0, TimeUnit.SECONDS)
+                // A ledger closes every 3 to 5 seconds, no pong in time means it's gone
+                .pingInterval(20, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public synchronized void start() {
+        if (closed) {
+            return;
+        }
+        System.out.println("Subscribing to validated ledgers at " + url);
+        webSocket = httpClient.newWebSocket(new Request.Builder().url(url).build(), new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                webSocket.send(SUBSCRIBE);
+            }
+
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                handle(webSocket, text);
+            }
+
+            @Override
+            public void onClosing(WebSocket webSocket, int code, String reason) {
+                webSocket.close(1000, null);
+                reconnect(webSocket, "closed by server (" + code + " " + reason + ")");
+            }
+
+            @Override
+            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                reconnect(webSocket, t.toString());
+            }
+        });
+    }
+
+    private void handle(WebSocket webSocket, String text) {
+        try {
+            JsonNode message = objectMapper.readTree(text);
+            String type = message.path("type").asText();
+            if ("response".equals(type)) {
+                if (!"success".equals(message.path("status").asText())) {
+                    System.err.println("Subscription refused: " + text);
+                    webSocket.close(1000, null);
+                    reconnect(webSocket, "subscription refused");
+                    return;
+                }
+                synchronized (this) {
+                    reconnectMillis = BASE_RECONNECT_MILLIS;
+                }
+                JsonNode ledgerIndex = message.path("result").path("ledger_index");
+                if (ledgerIndex.canConvertToLong()) {
+                    listener.validated(ledgerIndex.asLong());
+                }
+            } else if ("ledgerClosed".equals(type)) {
+                listener.validated(message.path("ledger_index").asLong());
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not read ledger stream message: " + ex.getMessage());
+        }
+    }
+
+    private synchronized void reconnect(WebSocket failed, String reason) {
+        // Only the current socket reconnects, and only once
+        if (closed || failed != webSocket) {
+            return;
+        }
+        webSocket = null;
+        System.err.println("Ledger stream lost: " + reason + ", reconnecting in " + reconnectMillis + "ms");
+        reconnector.schedule(this::start, reconnectMillis, TimeUnit.MILLISECONDS);
+        reconnectMillis = Math.min(MAX_RECONNECT_MILLIS, reconnectMillis * 2);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        reconnector.shutdownNow();
+        if (webSocket != null) {
+            webSocket.close(1000, null);
+            webSocket = null;
+        }
+        httpClient.dispatcher().executorService().shutdown();
+    }
+
+}
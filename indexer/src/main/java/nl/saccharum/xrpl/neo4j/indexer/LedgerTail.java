@@ -0,0 +1,155 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Keeps the graph current by following the validated ledgers.
+ *
+ * The live path writes every ledger the {@link LedgerSubscription} announces
+ * as soon as it is fetched, in a transaction of its own. When the announced
+ * ledger isn't the one after the last, because the indexer started behind or
+ * the subscription was down for a while, the missed range goes to the
+ * backfill: a thread that ingests the ranges it is handed with an
+ * {@link IngestPipeline}, while the live path carries on.
+ *
+ * Both paths have their own {@link BatchWriter}, writing concurrently and so
+ * out of order; they MERGE every wallet they refer to, so a payment from a
+ * wallet whose activation isn't written yet isn't lost. A live ledger that
+ * can't be fetched is left to the backfill as well. A failed write, or a
+ * ledger the backfill can't get, stops the tail like it stops a bounded run,
+ * and so does interrupting it; either way the ranges that weren't backfilled
+ * yet are left for the next run to find.
+ *
+ * @author smelis
+ */
+public class LedgerTail {
+
+    private final IngestPipeline.Stage<Long, byte[]> fetcher;
+    private final IngestPipeline.Stage<byte[], LedgerRows> transformer;
+    private final BatchWriter liveWriter;
+    private final IngestPipeline<byte[]> backfillPipeline;
+    private final BatchWriter backfillWriter;
+    private final IndexerMetrics metrics;
+    private final BlockingQueue<Long> validated = new LinkedBlockingQueue<>();
+    // Ranges of ledgers to backfill, from inclusive and to exclusive
+    private final BlockingQueue<long[]> gaps = new LinkedBlockingQueue<>();
+    private volatile Exception backfillFailure;
+    private long nextLedger;
+
+    /**
+     * @param nextLedger the first ledger that isn't written yet; the live
+     * path starts after it, everything in between is backfilled
+     */
+    public LedgerTail(IngestPipeline.Stage<Long, byte[]> fetcher, IngestPipeline.Stage<byte[], LedgerRows> transformer,
+            BatchWriter liveWriter, BatchWriter backfillWriter, IndexerMetrics metrics,
+            int fetchThreads, int transformThreads, int capacity, long nextLedger) {
+        this.fetcher = fetcher;
+        this.transformer = transformer;
+        this.liveWriter = liveWriter;
+        this.backfillWriter = backfillWriter;
+        this.metrics = metrics;
+        this.backfillPipeline = new IngestPipeline<>(fetcher, transformer, backfillWriter::add, fetchThreads, transformThreads, capacity);
+        this.nextLedger = nextLedger;
+        liveWriter.setMergeEndpoints(true);
+        backfillWriter.setMergeEndpoints(true);
+    }
+
+    /**
+     * For the {@link LedgerSubscription}: a ledger was validated.
+     */
+    public void validated(long ledgerIndex) {
+        validated.add(ledgerIndex);
+    }
+
+    /**
+     * Queues ledgers <code>from</code> (inclusive) up to <code>to</code>
+     * (exclusive) for the backfill, e.g. the gaps left by an earlier run.
+     */
+    public void backfill(long from, long to) {
+        if (from < to) {
+            System.out.println("Backfilling ledgers " + from + " up to " + to);
+            gaps.add(new long[]{from, to});
+        }
+    }
+
+    /**
+     * Follows the validated ledgers until interrupted or until a write fails.
+     */
+    public void run() throws Exception {
+        Thread backfill = new Thread(this::backfill, "backfill");
+        backfill.setDaemon(true);
+        backfill.start();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long ledgerIndex = validated.take();
+                if (backfillFailure != null) {
+                    throw backfillFailure;
+                }
+                metrics.setValidatedLedger(ledgerIndex);
+                if (ledgerIndex < nextLedger) {
+                    // Announced twice, e.g. after a reconnect
+                    continue;
+                }
+                backfill(nextLedger, ledgerIndex);
+                nextLedger = ledgerIndex + 1;
+                writeLive(ledgerIndex);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // What the backfill was still working on is left as gaps in the progress
+            backfill.interrupt();
+            // The driver abandons a transaction on an interrupted thread, so the
+            // last flushes run with the flag cleared; it is set again afterwards
+            boolean interrupted = Thread.interrupted();
+            try {
+                backfill.join();
+                backfillWriter.flush();
+                liveWriter.flush();
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (backfillFailure != null) {
+            throw backfillFailure;
+        }
+    }
+
+    private void writeLive(long ledgerIndex) throws Exception {
+        byte[] ledger;
+        LedgerRows rows;
+        try {
+            ledger = fetcher.apply(ledgerIndex);
+            rows = transformer.apply(ledger);
+        } catch (InterruptedException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            System.err.println("Could not get live ledger " + ledgerIndex + ": " + ex.getMessage());
+            backfill(ledgerIndex, ledgerIndex + 1);
+            return;
+        }
+        liveWriter.add(rows);
+        liveWriter.flush();
+    }
+
+    private void backfill() {
+        try {
+            while (true) {
+                long[] gap = gaps.take();
+                backfillPipeline.run(gap[0], gap[1]);
+                backfillWriter.flush();
+                System.out.println("Backfilled ledgers " + gap[0] + " up to " + gap[1]);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            backfillFailure = ex;
+            // Wake up the live path so it sees the failure
+            validated.add(-1L);
+        }
+    }
+
+}
@@ -0,0 +1,737 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Result;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+
+/**
+ * The ACTIVATES tree of the wallets, from genesis down, in memory, for
+ * questions like "who activated this wallet, up to genesis?" and "which
+ * wallets descend from this one?" that take variable length traversals over
+ * millions of nodes in Cypher.
+ *
+ * Wallets get dense int ids in the order they are added. Per id the index
+ * keeps the account ID, the id of the parent, the ledger of the activation
+ * and the number of descendants in primitive arrays, 32 bytes per wallet,
+ * plus an entry in an {@link AccountIdMap} to find the id of an address.
+ * Wallets without an XRPL address, like "genesis", are kept by name. The
+ * numbers of descendants are kept up to date by every activation, along the
+ * path to its root, so counting them takes constant time.
+ *
+ * Descendant checks take constant time thanks to an Euler tour: a depth first
+ * walk numbers each wallet when it enters it (tin) and remembers the last
+ * number in its subtree (tout). A wallet descends from another when its tin
+ * lies within the other's (tin, tout], and the descendants of a wallet are
+ * the ones numbered tin + 1 up to tout. The walk also sets the depths. These
+ * labels take another 16 bytes per wallet and a pass over all of them, so
+ * they are an immutable snapshot that {@link #relabel()} replaces, every
+ * second or so from a background thread, without holding up the writers
+ * while it walks. Until then the wallets added since are answered by walking
+ * up to their first labelled ancestor, and a labelled wallet that got another
+ * parent, a moved wallet, takes its labelled subtree with it: the labels of a
+ * wallet hold up to the closest moved wallet above it, from where the walk
+ * goes on at its new parent.
+ *
+ * Activations may be added in any order. A wallet whose parent isn't known
+ * yet is a root until it is. A wallet that was deleted and activated again
+ * keeps the activation in the lowest ledger; an activation that would make a
+ * wallet its own ancestor can't be that one and is ignored.
+ *
+ * The {@link BatchWriter} adds the ledgers it committed, and the index
+ * remembers which those were, so it can tell whether it is out of step with
+ * the {@link ProgressTracker}, e.g. after a crash or when other processes
+ * wrote to the graph, and should be rebuilt from the graph. It is saved in
+ * the cache directory. Thread safe.
+ *
+ * @author smelis
+ */
+public class LineageIndex {
+
+    public static final String FILE_NAME = "lineage.idx";
+
+    private static final int MAGIC = 0x4c494e31;
+    private static final int NONE = -1;
+    private static final int UNKNOWN_LEDGER = Integer.MAX_VALUE;
+    private static final int ID_LENGTH = AccountIdMap.ACCOUNT_ID_LENGTH;
+
+    /**
+     * The Euler tour of the first <code>size</code> wallets, by id.
+     */
+    private static final class Labels {
+
+        static final Labels EMPTY = new Labels(0);
+
+        final int size;
+        final int[] tin;
+        final int[] tout;
+        final int[] depths;
+        // The wallets by tin
+        final int[] order;
+
+        Labels(int size) {
+            this.size = size;
+            this.tin = new int[size];
+            this.tout = new int[size];
+            this.depths = new int[size];
+            this.order = new int[size];
+        }
+    }
+
+    private AccountIdMap ids = new AccountIdMap(1 << 16);
+    private final Map<String, Integer> namedIds = new HashMap<>();
+    private final Map<Integer, String> names = new HashMap<>();
+    private byte[] accountIds = new byte[1024 * ID_LENGTH];
+    private int[] parents = new int[1024];
+    private int[] ledgers = new int[1024];
+    private int[] counts = new int[1024];
+    private int size = 0;
+    private final LedgerRangeSet covered = new LedgerRangeSet();
+    // Raised when the index is cleared, so labels of what was there before aren't installed
+    private int generation = 0;
+
+    private Labels labels = Labels.EMPTY;
+    // The labelled wallets that got another parent since
+    private int[] moved = new int[16];
+    private int movedCount = 0;
+    private final BitSet isMoved = new BitSet();
+    // While relabelling: the wallets it labels, and which of them got another parent since it copied the parents
+    private final Object relabelLock = new Object();
+    private int copied = 0;
+    private int[] changed = new int[16];
+    private int changedCount = 0;
+    private final BitSet isChanged = new BitSet();
+
+    /**
+     * Adds activations that are committed to the graph, given as the
+     * parameters the {@link LedgerTransformer} made for them, and the ledgers
+     * they were committed with.
+     */
+    public synchronized void addAll(Collection<Map<String, Object>> activations, Collection<Long> ledgerIndexes) {
+        for (Map<String, Object> activation : activations) {
+            add((String) activation.get("parent"), (String) activation.get("child"), ((Number) activation.get("ledgerIndex")).longValue());
+        }
+        ledgerIndexes.forEach(covered::add);
+    }
+
+    /**
+     * Adds the activation of <code>child</code> by <code>parent</code> in the
+     * given ledger.
+     */
+    public synchronized void add(String parent, String child, long ledgerIndex) {
+        int ledger = (int) Math.min(ledgerIndex, UNKNOWN_LEDGER - 1);
+        int childId = idOf(child);
+        if (childId == NONE) {
+            childId = create(child);
+        } else if (parents[childId] != NONE && ledgers[childId] <= ledger) {
+            return;
+        }
+        int parentId = idOf(parent);
+        if (parentId == NONE) {
+            parentId = create(parent);
+        } else if (isAncestor(childId, parentId)) {
+            return;
+        }
+        // Moves a labelled subtree, which queries follow until the next labels
+        if (childId < labels.size && !isMoved.get(childId)) {
+            isMoved.set(childId);
+            moved = append(moved, movedCount++, childId);
+        }
+        if (childId < copied && !isChanged.get(childId)) {
+            isChanged.set(childId);
+            changed = append(changed, changedCount++, childId);
+        }
+        int subtree = counts[childId] + 1;
+        for (int ancestor = parents[childId]; ancestor != NONE; ancestor = parents[ancestor]) {
+            counts[ancestor] -= subtree;
+        }
+        parents[childId] = parentId;
+        ledgers[childId] = ledger;
+        for (int ancestor = parentId; ancestor != NONE; ancestor = parents[ancestor]) {
+            counts[ancestor] += subtree;
+        }
+    }
+
+    private static int[] append(int[] ids, int count, int id) {
+        int[] appended = count < ids.length ? ids : Arrays.copyOf(ids, count * 2);
+        appended[count] = id;
+        return appended;
+    }
+
+    /**
+     * @return whether the index has the activations of exactly these ledgers,
+     * the ones in the graph
+     */
+    public synchronized boolean isUpToDate(LedgerRangeSet completed) {
+        return covered.containsAll(completed) && completed.containsAll(covered);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean contains(String address) {
+        return idOf(address) != NONE;
+    }
+
+    /**
+     * @return the wallet that activated this one, or null if it is unknown or
+     * a root
+     */
+    public synchronized String parent(String address) {
+        int id = idOf(address);
+        return id == NONE || parents[id] == NONE ? null : addressOf(parents[id]);
+    }
+
+    /**
+     * @return the ledger the wallet was activated in, or -1 if that is unknown
+     */
+    public synchronized long activationLedger(String address) {
+        int id = idOf(address);
+        return id == NONE || ledgers[id] == UNKNOWN_LEDGER ? -1 : ledgers[id];
+    }
+
+    /**
+     * @return the number of activations between the wallet and its root, or -1
+     * if the wallet is unknown
+     */
+    public synchronized int depth(String address) {
+        int id = idOf(address);
+        if (id == NONE) {
+            return -1;
+        }
+        return depthOf(id);
+    }
+
+    /**
+     * @return the wallets that activated this one, its parent first and its
+     * root last; empty if it is unknown or a root
+     */
+    public synchronized List<String> ancestors(String address) {
+        List<String> ancestors = new ArrayList<>();
+        int id = idOf(address);
+        if (id != NONE) {
+            for (int ancestor = parents[id]; ancestor != NONE; ancestor = parents[ancestor]) {
+                ancestors.add(addressOf(ancestor));
+            }
+        }
+        return ancestors;
+    }
+
+    /**
+     * @return whether <code>address</code> was activated, directly or not, by
+     * <code>ancestor</code>
+     */
+    public synchronized boolean isDescendant(String address, String ancestor) {
+        int id = idOf(address);
+        int ancestorId = idOf(ancestor);
+        if (id == NONE || ancestorId == NONE) {
+            return false;
+        }
+        return isDescendant(id, ancestorId);
+    }
+
+    /**
+     * @return the number of wallets activated, directly or not, by the wallet
+     */
+    public synchronized int descendantCount(String address) {
+        int id = idOf(address);
+        return id == NONE ? 0 : counts[id];
+    }
+
+    /**
+     * @return at most <code>limit</code> of the wallets activated, directly or
+     * not, by the wallet, depth first as far as they are labelled
+     */
+    public synchronized List<String> descendants(String address, int limit) {
+        List<String> descendants = new ArrayList<>();
+        int id = idOf(address);
+        if (id == NONE || counts[id] == 0) {
+            return descendants;
+        }
+        int labelled = labels.size;
+        int[] tin = labels.tin;
+        int[] tout = labels.tout;
+        int[] sortedMoved = movedByTin();
+        boolean[] under = new boolean[sortedMoved.length];
+        for (int i = 0; i < sortedMoved.length; i++) {
+            under[i] = isDescendant(sortedMoved[i], id);
+        }
+        if (id < labelled) {
+            collect(tin[id] + 1, tout[id], sortedMoved, under, descendants, limit);
+        }
+        for (int i = 0; i < sortedMoved.length && descendants.size() < limit; i++) {
+            int m = sortedMoved[i];
+            // The ones in its own labelled subtree were collected above
+            if (under[i] && !(id < labelled && tin[id] < tin[m] && tin[m] <= tout[id])) {
+                descendants.add(addressOf(m));
+                collect(tin[m] + 1, tout[m], sortedMoved, null, descendants, limit);
+            }
+        }
+        // Only the few wallets added since the labels
+        for (int added = labelled; added < size && descendants.size() < limit; added++) {
+            if (isDescendant(added, id)) {
+                descendants.add(addressOf(added));
+            }
+        }
+        return descendants;
+    }
+
+    private int idOf(String address) {
+        byte[] accountId = WalletRegistry.decode(address);
+        if (accountId == null) {
+            return namedIds.getOrDefault(address, NONE);
+        }
+        return (int) ids.get(accountId);
+    }
+
+    private String addressOf(int id) {
+        String name = names.get(id);
+        return name != null ? name : WalletRegistry.encode(Arrays.copyOfRange(accountIds, id * ID_LENGTH, (id + 1) * ID_LENGTH));
+    }
+
+    /**
+     * @return the id of a new root
+     */
+    private int create(String address) {
+        byte[] accountId = WalletRegistry.decode(address);
+        if (size == parents.length) {
+            int capacity = size * 2;
+            accountIds = Arrays.copyOf(accountIds, capacity * ID_LENGTH);
+            parents = Arrays.copyOf(parents, capacity);
+            ledgers = Arrays.copyOf(ledgers, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        int id = size++;
+        parents[id] = NONE;
+        ledgers[id] = UNKNOWN_LEDGER;
+        counts[id] = 0;
+        if (accountId == null) {
+            namedIds.put(address, id);
+            names.put(id, address);
+        } else {
+            System.arraycopy(accountId, 0, accountIds, id * ID_LENGTH, ID_LENGTH);
+            if (!ids.put(accountId, id)) {
+                grow();
+                ids.put(accountId, id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Moves the ids to a map twice the size.
+     */
+    private void grow() {
+        ids = new AccountIdMap(ids.maxSize() * 2);
+        byte[] accountId = new byte[ID_LENGTH];
+        for (int id = 0; id < size; id++) {
+            if (!names.containsKey(id)) {
+                System.arraycopy(accountIds, id * ID_LENGTH, accountId, 0, ID_LENGTH);
+                ids.put(accountId, id);
+            }
+        }
+    }
+
+    /**
+     * Walks up from the wallet; only used while adding, when the labels
+     * may be off.
+     */
+    private boolean isAncestor(int ancestor, int id) {
+        for (int walk = id; walk != NONE; walk = parents[walk]) {
+            if (walk == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isDescendant(int id, int ancestor) {
+        int labelled = labels.size;
+        int[] tin = labels.tin;
+        int[] tout = labels.tout;
+        int walk = id;
+        while (walk != NONE) {
+            if (walk < labelled) {
+                // The labels hold up to the closest moved wallet
+                int moved = movedAbove(walk);
+                if (ancestor < labelled && tin[ancestor] < tin[walk] && tin[walk] <= tout[ancestor]
+                        && (moved == NONE || tin[ancestor] >= tin[moved])) {
+                    return true;
+                }
+                if (moved == NONE) {
+                    return false;
+                }
+                walk = moved;
+            }
+            walk = parents[walk];
+            if (walk == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int depthOf(int id) {
+        int labelled = labels.size;
+        int[] depths = labels.depths;
+        int depth = 0;
+        int walk = id;
+        while (true) {
+            if (walk < labelled) {
+                int moved = movedAbove(walk);
+                if (moved == NONE) {
+                    return depth + depths[walk];
+                }
+                depth += depths[walk] - depths[moved];
+                walk = moved;
+            }
+            if (parents[walk] == NONE) {
+                return depth;
+            }
+            walk = parents[walk];
+            depth++;
+        }
+    }
+
+    /**
+     * @return the closest moved wallet above the labelled wallet, or the
+     * wallet itself if it was moved, or NONE
+     */
+    private int movedAbove(int id) {
+        int[] tin = labels.tin;
+        int[] tout = labels.tout;
+        int closest = NONE;
+        for (int i = 0; i < movedCount; i++) {
+            int m = moved[i];
+            if (tin[m] <= tin[id] && tin[id] <= tout[m] && (closest == NONE || tin[m] > tin[closest])) {
+                closest = m;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * @return the moved wallets, by tin
+     */
+    private int[] movedByTin() {
+        int[] tin = labels.tin;
+        long[] keys = new long[movedCount];
+        for (int i = 0; i < movedCount; i++) {
+            keys[i] = (long) tin[moved[i]] << 32 | moved[i];
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[movedCount];
+        for (int i = 0; i < movedCount; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        return sorted;
+    }
+
+    /**
+     * Adds the wallets numbered <code>from</code> up to <code>to</code>,
+     * skipping the subtrees of the moved wallets among them that aren't
+     * <code>under</code> the wallet asked for, or of all of them if that is
+     * null.
+     */
+    private void collect(int from, int to, int[] sortedMoved, boolean[] under, List<String> descendants, int limit) {
+        int[] tin = labels.tin;
+        int[] tout = labels.tout;
+        int[] order = labels.order;
+        // The indexes of the moved wallets the walk is in, the closest on top
+        int[] stack = new int[sortedMoved.length];
+        int top = -1;
+        int next = 0;
+        while (next < sortedMoved.length && tin[sortedMoved[next]] < from) {
+            next++;
+        }
+        int i = from;
+        while (i <= to && descendants.size() < limit) {
+            while (top >= 0 && tout[sortedMoved[stack[top]]] < i) {
+                top--;
+            }
+            if (next < sortedMoved.length && tin[sortedMoved[next]] == i) {
+                stack[++top] = next++;
+            }
+            if (top < 0 || (under != null && under[stack[top]])) {
+                descendants.add(addressOf(order[i++]));
+            } else {
+                // Skip to the next moved wallet in it, or past its subtree
+                i = tout[sortedMoved[stack[top]]] + 1;
+                if (next < sortedMoved.length) {
+                    i = Math.min(i, tin[sortedMoved[next]]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Labels the wallets again, if any were added or moved since the last
+     * time. The parents are copied under the lock, but the walk is done
+     * outside of it, so writers and queries only wait for the copy; what they
+     * change in the meantime is followed like any other change after the
+     * labels. Meant to be called every second or so from a background thread.
+     */
+    public void relabel() {
+        relabel(() -> {
+        });
+    }
+
+    /**
+     * Relabels, running <code>whileLabelling</code> after the parents are
+     * copied, for tests that change the index in between.
+     */
+    void relabel(Runnable whileLabelling) {
+        synchronized (relabelLock) {
+            int n;
+            int[] parentsCopy;
+            int copiedGeneration;
+            synchronized (this) {
+                if (size == labels.size && movedCount == 0) {
+                    return;
+                }
+                n = size;
+                parentsCopy = Arrays.copyOf(parents, n);
+                copiedGeneration = generation;
+                copied = n;
+            }
+            whileLabelling.run();
+            Labels fresh = label(parentsCopy, n);
+            synchronized (this) {
+                if (generation == copiedGeneration) {
+                    labels = fresh;
+                    // The wallets that got another parent after the copy are the moved ones of the new labels
+                    isMoved.clear();
+                    movedCount = 0;
+                    for (int i = 0; i < changedCount; i++) {
+                        isMoved.set(changed[i]);
+                        moved = append(moved, movedCount++, changed[i]);
+                    }
+                }
+                copied = 0;
+                changedCount = 0;
+                isChanged.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the labels of the first <code>n</code> wallets with the given
+     * parents
+     */
+    private static Labels label(int[] parents, int n) {
+        // The children of each wallet, next to each other, by counting sort
+        int[] childStart = new int[n + 1];
+        for (int id = 0; id < n; id++) {
+            if (parents[id] != NONE) {
+                childStart[parents[id] + 1]++;
+            }
+        }
+        for (int id = 0; id < n; id++) {
+            childStart[id + 1] += childStart[id];
+        }
+        int[] children = new int[n];
+        int[] next = Arrays.copyOf(childStart, n);
+        for (int id = 0; id < n; id++) {
+            if (parents[id] != NONE) {
+                children[next[parents[id]]++] = id;
+            }
+        }
+        System.arraycopy(childStart, 0, next, 0, n);
+        Labels labels = new Labels(n);
+        int[] tin = labels.tin;
+        int[] tout = labels.tout;
+        int[] depths = labels.depths;
+        int[] order = labels.order;
+        int[] stack = new int[n];
+        int counter = 0;
+        for (int root = 0; root < n; root++) {
+            if (parents[root] != NONE) {
+                continue;
+            }
+            int top = 0;
+            stack[top] = root;
+            tin[root] = counter;
+            order[counter++] = root;
+            depths[root] = 0;
+            while (top >= 0) {
+                int id = stack[top];
+                if (next[id] < childStart[id + 1]) {
+                    int child = children[next[id]++];
+                    tin[child] = counter;
+                    order[counter++] = child;
+                    depths[child] = depths[id] + 1;
+                    stack[++top] = child;
+                } else {
+                    tout[id] = counter - 1;
+                    top--;
+                }
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Writes the index to a file next to the given one and moves it in place,
+     * so there is always a complete index to load.
+     */
+    public void save(Path file) throws IOException {
+        int n;
+        byte[] accountIdsCopy;
+        int[] parentsCopy;
+        int[] ledgersCopy;
+        Map<Integer, String> namesCopy;
+        long[] ranges;
+        // Copied under the lock, written outside of it
+        synchronized (this) {
+            n = size;
+            accountIdsCopy = Arrays.copyOf(accountIds, n * ID_LENGTH);
+            parentsCopy = Arrays.copyOf(parents, n);
+            ledgersCopy = Arrays.copyOf(ledgers, n);
+            namesCopy = new HashMap<>(names);
+            ranges = covered.toArray();
+        }
+        Path partial = file.resolveSibling(file.getFileName() + ".partial");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(n);
+            out.writeInt(ranges.length);
+            for (long range : ranges) {
+                out.writeLong(range);
+            }
+            out.writeInt(namesCopy.size());
+            for (Map.Entry<Integer, String> name : namesCopy.entrySet()) {
+                out.writeInt(name.getKey());
+                out.writeUTF(name.getValue());
+            }
+            out.write(accountIdsCopy);
+            for (int id = 0; id < n; id++) {
+                out.writeInt(parentsCopy[id]);
+                out.writeInt(ledgersCopy[id]);
+            }
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replaces the contents of the index with what was saved in the file.
+     *
+     * @return false if there is no such file
+     */
+    public boolean load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a lineage index: " + file);
+            }
+            int n = in.readInt();
+            long[] ranges = new long[in.readInt()];
+            for (int i = 0; i < ranges.length; i++) {
+                ranges[i] = in.readLong();
+            }
+            Map<Integer, String> savedNames = new HashMap<>();
+            for (int count = in.readInt(); count > 0; count--) {
+                savedNames.put(in.readInt(), in.readUTF());
+            }
+            byte[] savedAccountIds = new byte[Math.max(n, 1024) * ID_LENGTH];
+            in.readFully(savedAccountIds, 0, n * ID_LENGTH);
+            int[] savedParents = new int[Math.max(n, 1024)];
+            int[] savedLedgers = new int[savedParents.length];
+            for (int id = 0; id < n; id++) {
+                savedParents[id] = in.readInt();
+                savedLedgers[id] = in.readInt();
+            }
+            // The numbers of descendants follow from the labels
+            Labels savedLabels = label(savedParents, n);
+            int[] savedCounts = new int[savedParents.length];
+            for (int id = 0; id < n; id++) {
+                savedCounts[id] = savedLabels.tout[id] - savedLabels.tin[id];
+            }
+            synchronized (this) {
+                clear();
+                accountIds = savedAccountIds;
+                parents = savedParents;
+                ledgers = savedLedgers;
+                counts = savedCounts;
+                labels = savedLabels;
+                size = n;
+                names.putAll(savedNames);
+                savedNames.forEach((id, name) -> namedIds.put(name, id));
+                ids = new AccountIdMap(Math.max(1 << 16, n * 2));
+                byte[] accountId = new byte[ID_LENGTH];
+                for (int id = 0; id < n; id++) {
+                    if (!names.containsKey(id)) {
+                        System.arraycopy(accountIds, id * ID_LENGTH, accountId, 0, ID_LENGTH);
+                        ids.put(accountId, id);
+                    }
+                }
+                covered.addAll(LedgerRangeSet.fromArray(ranges));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the contents of the index with the activations in the graph,
+     * which has the given ledgers. Don't write to the graph while this runs.
+     */
+    public void rebuild(Driver neo4jDriver, String database, LedgerRangeSet completed) {
+        synchronized (this) {
+            clear();
+        }
+        try (Session session = neo4jDriver.session(SessionConfig.forDatabase(database))) {
+            Result result = session.run("MATCH (parent:Wallet)-[activation:ACTIVATES]->(child:Wallet)\n"
+                    + "RETURN parent.address AS parent, child.address AS child, activation.ledgerIndex AS ledgerIndex");
+            while (result.hasNext()) {
+                Record record = result.next();
+                add(record.get("parent").asString(), record.get("child").asString(), record.get("ledgerIndex").asLong(UNKNOWN_LEDGER));
+            }
+        }
+        synchronized (this) {
+            covered.addAll(completed);
+        }
+        relabel();
+    }
+
+    private void clear() {
+        ids = new AccountIdMap(1 << 16);
+        namedIds.clear();
+        names.clear();
+        accountIds = new byte[1024 * ID_LENGTH];
+        parents = new int[1024];
+        ledgers = new int[1024];
+        counts = new int[1024];
+        size = 0;
+        generation++;
+        labels = Labels.EMPTY;
+        movedCount = 0;
+        isMoved.clear();
+        changedCount = 0;
+        isChanged.clear();
+        covered.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LineageIndex{" + "wallets=" + size + ", labelled=" + labels.size + ", ledgers=" + covered.size() + '}';
+    }
+
+}
@@ -0,0 +1,141 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Answers questions about the {@link LineageIndex} as JSON, on localhost:
+ * <ul>
+ * <li><code>/lineage?address=r...</code>: the parent, depth, activation
+ * ledger, ancestors up to the root and number of descendants</li>
+ * <li><code>/lineage/descendants?address=r...&amp;limit=100</code>: the
+ * descendants, depth first</li>
+ * <li><code>/lineage/isDescendant?address=r...&amp;ancestor=r...</code></li>
+ * </ul>
+ *
+ * Usage: LineageServer &lt;lineage file&gt; [port], to serve a saved index
+ * without running the indexer.
+ *
+ * @author smelis
+ */
+public class LineageServer implements AutoCloseable {
+
+    private static final int DEFAULT_LIMIT = 100;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LineageIndex lineage;
+    private final HttpServer server;
+
+    public LineageServer(LineageIndex lineage, int port) throws IOException {
+        this.lineage = lineage;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/lineage", this::handle);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Lineage on http://localhost:" + getPort() + "/lineage");
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+        String address = query.get("address");
+        ObjectNode response = objectMapper.createObjectNode();
+        int status = 200;
+        if (address == null) {
+            status = 400;
+            response.put("error", "address missing");
+        } else {
+            response.put("address", address);
+            switch (exchange.getRequestURI().getPath()) {
+                case "/lineage":
+                case "/lineage/":
+                    response.put("known", lineage.contains(address));
+                    response.put("parent", lineage.parent(address));
+                    response.put("depth", lineage.depth(address));
+                    response.put("activationLedger", lineage.activationLedger(address));
+                    lineage.ancestors(address).forEach(response.putArray("ancestors")::add);
+                    response.put("descendantCount", lineage.descendantCount(address));
+                    break;
+                case "/lineage/descendants":
+                    int limit;
+                    try {
+                        limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : DEFAULT_LIMIT;
+                    } catch (NumberFormatException ex) {
+                        status = 400;
+                        response.put("error", "limit is not a number");
+                        break;
+                    }
+                    response.put("descendantCount", lineage.descendantCount(address));
+                    lineage.descendants(address, limit).forEach(response.putArray("descendants")::add);
+                    break;
+                case "/lineage/isDescendant":
+                    String ancestor = query.get("ancestor");
+                    if (ancestor == null) {
+                        status = 400;
+                        response.put("error", "ancestor missing");
+                    } else {
+                        response.put("ancestor", ancestor);
+                        response.put("isDescendant", lineage.isDescendant(address, ancestor));
+                    }
+                    break;
+                default:
+                    status = 404;
+                    response.put("error", "unknown query");
+            }
+        }
+        byte[] body = objectMapper.writeValueAsBytes(response);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> query(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery != null) {
+            for (String param : rawQuery.split("&")) {
+                int equals = param.indexOf('=');
+                if (equals > 0) {
+                    params.put(URLDecoder.decode(param.substring(0, equals), "UTF-8"), URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+                }
+            }
+        }
+        return params;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: LineageServer <lineage file> [port]");
+            System.exit(1);
+        }
+        LineageIndex lineage = new LineageIndex();
+        if (!lineage.load(Paths.get(args[0]))) {
+            System.err.println("No lineage index at " + args[0]);
+            System.exit(1);
+        }
+        System.out.println(lineage);
+        new LineageServer(lineage, args.length > 1 ? Integer.parseInt(args[1]) : 9401).start();
+    }
+
+}
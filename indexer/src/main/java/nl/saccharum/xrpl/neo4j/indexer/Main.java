@@ -0,0 +1,458 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import nl.saccharum.xrpl.neo4j.indexer.IndexerMetrics.Stage;
+import org.neo4j.driver.AuthTokens;
+import org.neo4j.driver.Config;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.GraphDatabase;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+import java.nio.file.Paths;
+import okhttp3.HttpUrl;
+
+/**
+ * Rudimentary indexer of XRP ledgers in Neo4J using xrpl4j. 4j.
+ * Based on (javascript) code by Thomas Silkjaer published here:
+ * https://github.com/Dassy23/xrpl-to-neo4j
+ * NB Transaction deserialization currently builds on an as yet unmerged PR for xrpl4j.
+  */
+public class Main implements AutoCloseable {
+
+    private final Driver neo4jDriver;
+    private final String database;
+    private static final long START_LEDGER = 32570;
+    // first ledger with a transaction
+    // private static final long START_LEDGER = 38128;
+    private final LedgerCache cache;
+    private final RippledClient rippledClient;
+    private final LedgerTransformer transformer = new LedgerTransformer();
+    // STREAMING, DATABIND (xrpl4j's LedgerResult) or VERIFY (both, compared)
+    private final LedgerParser parser = new LedgerParser(transformer, LedgerParser.modeFromSystemProperty());
+    private final WalletRegistry walletRegistry;
+    private final BatchWriter batchWriter;
+    private final ProgressTracker progress = new ProgressTracker();
+    private final IndexerMetrics metrics = new IndexerMetrics();
+    private final ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private MetricsServer metricsServer;
+    private final LineageIndex lineage = new LineageIndex();
+    private final Path lineageFile;
+    private LineageServer lineageServer;
+    private volatile boolean lineageLoaded = false;
+    // Write batching, a batch is flushed when any of these is reached
+    private static final int BATCH_LEDGERS = Integer.getInteger("indexer.batch.ledgers", 100);
+    private static final int BATCH_ROWS = Integer.getInteger("indexer.batch.rows", 10_000);
+    private static final long BATCH_FLUSH_INTERVAL_MILLIS = Long.getLong("indexer.batch.flushIntervalMillis", 5_000);
+    // Pipeline concurrency
+    private static final int FETCH_THREADS = Integer.getInteger("indexer.fetch.threads", 4);
+    private static final int TRANSFORM_THREADS = Integer.getInteger("indexer.transform.threads", 2);
+    private static final int PIPELINE_CAPACITY = Integer.getInteger("indexer.pipeline.capacity", 64);
+    // Comma separated rippled JSON-RPC endpoints to spread the load over
+    private static final String RIPPLED_URLS = System.getProperty("indexer.rippled.urls", "https://s2.ripple.com:51234/");
+    // Requests per second per endpoint, adapted to the server's response between these
+    private static final double RIPPLED_INITIAL_RATE = Double.parseDouble(System.getProperty("indexer.rippled.initialRate", "10"));
+    private static final double RIPPLED_MAX_RATE = Double.parseDouble(System.getProperty("indexer.rippled.maxRate", "40"));
+    private static final long RIPPLED_TARGET_LATENCY_MILLIS = Long.getLong("indexer.rippled.targetLatencyMillis", 500);
+    // Ledger cache: whether to deflate the ledgers it stores, and the ledgers per segment of a new cache (an existing one keeps its own)
+    private static final boolean CACHE_COMPRESS = Boolean.parseBoolean(System.getProperty("indexer.cache.compress", "false"));
+    private static final int CACHE_SEGMENT_SIZE = Integer.getInteger("indexer.cache.segmentSize", SegmentedCacher.DEFAULT_SEGMENT_SIZE);
+    // Wallets whose node id is kept in memory, see WalletRegistry for what that costs
+    private static final int WALLET_REGISTRY_SIZE = Integer.getInteger("indexer.wallets.registrySize", 2_000_000);
+    private static final WalletRegistry.Eviction WALLET_REGISTRY_EVICTION = WalletRegistry.Eviction.valueOf(System.getProperty("indexer.wallets.eviction", "GENERATIONAL").toUpperCase());
+    // Prometheus endpoint on localhost, a negative port disables it
+    private static final int METRICS_PORT = Integer.getInteger("indexer.metrics.port", 9400);
+    private static final long METRICS_REPORT_SECONDS = Long.getLong("indexer.metrics.reportSeconds", 10);
+    private static final long VALIDATED_POLL_SECONDS = Long.getLong("indexer.metrics.validatedPollSeconds", 30);
+    // RANGE: the next 100k ledgers, TAIL: follow the validated ledgers, FILL_GAPS: only what's missing below the last,
+    // PARALLEL: everything up to indexer.parallel.to with a number of workers, AGGREGATES: recompute the wallet aggregates
+    private static final Mode MODE = Mode.valueOf(System.getProperty("indexer.mode", "RANGE").toUpperCase());
+    // rippled's WebSocket API, for the TAIL mode
+    private static final String RIPPLED_WS_URL = System.getProperty("indexer.rippled.ws", "wss://s2.ripple.com/");
+    // PARALLEL mode: workers in this process, and the partitions they share with other processes, in Neo4j or in this file.
+    // Every process needs a cache directory of its own, a cache in use by another process is refused
+    private static final int PARALLEL_WORKERS = Integer.getInteger("indexer.parallel.workers", Runtime.getRuntime().availableProcessors());
+    private static final int PARALLEL_PARTITION_SIZE = Integer.getInteger("indexer.parallel.partitionSize", 10_000);
+    // Up to the latest validated ledger by default
+    private static final long PARALLEL_TO = Long.getLong("indexer.parallel.to", -1);
+    private static final String PARALLEL_QUEUE_FILE = System.getProperty("indexer.parallel.queueFile");
+    private static final long PARALLEL_LEASE_MILLIS = Long.getLong("indexer.parallel.leaseSeconds", 600) * 1000;
+    // Unique among the processes sharing a queue, names the workers and their checkpoints
+    private static final String WORKER_NAME = System.getProperty("indexer.worker.name", ManagementFactory.getRuntimeMXBean().getName());
+    // Wallets per transaction when recomputing their aggregates
+    private static final int AGGREGATES_PAGE_SIZE = Integer.getInteger("indexer.aggregates.pageSize", 1_000);
+    // Activation lineage index, saved in the cache directory, and its HTTP port on localhost; a negative port disables it
+    private static final boolean LINEAGE_ENABLED = Boolean.parseBoolean(System.getProperty("indexer.lineage.enabled", "true"));
+    private static final int LINEAGE_PORT = Integer.getInteger("indexer.lineage.port", 9401);
+    private static final long LINEAGE_SAVE_SECONDS = Long.getLong("indexer.lineage.saveSeconds", 300);
+    // How often the lineage index labels the wallets added since the last time, in the background
+    private static final long LINEAGE_RELABEL_MILLIS = Long.getLong("indexer.lineage.relabelMillis", 1000);
+    // A graph without checkpoints: whether all its Ledger nodes are complete (bulk imported), or else how many of the
+    // highest to ingest again
+    private static final boolean PROGRESS_TRUST_LEDGERS = Boolean.parseBoolean(System.getProperty("indexer.progress.trustLedgers", "false"));
+    private static final int PROGRESS_LEGACY_REWIND = Integer.getInteger("indexer.progress.legacyRewind", 100);
+    // How long the driver retries a transaction that failed on a deadlock or another transient error
+    private static final long NEO4J_MAX_RETRY_SECONDS = Long.getLong("indexer.neo4j.maxRetrySeconds", 120);
+
+    public enum Mode {
+        RANGE, TAIL, FILL_GAPS, PARALLEL, AGGREGATES
+    }
+
+    public Main(String uri, String user, String password, String database, Path cachePath) throws IOException {
+        this(uri, user, password, database, new SegmentedCacher(cachePath, SegmentedCacher.storedSegmentSize(cachePath, CACHE_SEGMENT_SIZE), CACHE_COMPRESS),
+                cachePath.resolve(LineageIndex.FILE_NAME));
+    }
+
+    public Main(String uri, String user, String password, String database, LedgerCache cache) {
+        this(uri, user, password, database, cache, null);
+    }
+
+    /**
+     * @param lineageFile where the lineage index is saved, or null to keep it
+     * in memory only
+     */
+    public Main(String uri, String user, String password, String database, LedgerCache cache, Path lineageFile) {
+        this.neo4jDriver = GraphDatabase.driver(uri, AuthTokens.basic(user, password), Config.builder()
+                .withMaxTransactionRetryTime(NEO4J_MAX_RETRY_SECONDS, TimeUnit.SECONDS)
+                .build());
+        this.cache = cache;
+        this.database = database;
+        List<HttpUrl> rippledUrls = new ArrayList<>();
+        for (String url : RIPPLED_URLS.split(",")) {
+            rippledUrls.add(HttpUrl.get(url.trim()));
+        }
+        System.out.println("Using rippled at " + RIPPLED_URLS);
+        rippledClient = new RippledClient(rippledUrls, RIPPLED_INITIAL_RATE, RIPPLED_MAX_RATE, RIPPLED_TARGET_LATENCY_MILLIS);
+        walletRegistry = new WalletRegistry(WALLET_REGISTRY_SIZE, WALLET_REGISTRY_EVICTION);
+        batchWriter = new BatchWriter(neo4jDriver, database, walletRegistry, metrics, BATCH_LEDGERS, BATCH_ROWS, BATCH_FLUSH_INTERVAL_MILLIS);
+        batchWriter.setProgress(progress, "main");
+        this.lineageFile = lineageFile;
+        if (LINEAGE_ENABLED) {
+            batchWriter.setLineage(lineage);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Stopping the tail interrupts this thread; the driver won't write the
+        // last batch on an interrupted thread, so the flag is set again after
+        boolean interrupted = Thread.interrupted();
+        try {
+            batchWriter.close();
+            saveLineage();
+        } finally {
+            try {
+                stopMonitoring();
+                neo4jDriver.close();
+            } finally {
+                cache.close();
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    public void run() throws Exception {
+        long ledgerIndex = prepare();
+        // Limit to the next 100k ledgers
+        IngestPipeline<byte[]> pipeline = new IngestPipeline<>(
+                this::getLedger, this::parse, batchWriter::add,
+                FETCH_THREADS, TRANSFORM_THREADS, PIPELINE_CAPACITY);
+        pipeline.run(ledgerIndex, ledgerIndex + 1_00_000);
+        batchWriter.flush();
+    }
+
+    /**
+     * Follows the validated ledgers until interrupted, backfilling whatever is
+     * missing: the ledgers between the last written and the current one, and
+     * the gaps an earlier run left behind.
+     */
+    public void tail() throws Exception {
+        long ledgerIndex = prepare();
+        BatchWriter liveWriter = new BatchWriter(neo4jDriver, database, walletRegistry, metrics, 1, Integer.MAX_VALUE, 0);
+        liveWriter.setProgress(progress, "live");
+        if (LINEAGE_ENABLED) {
+            liveWriter.setLineage(lineage);
+        }
+        LedgerTail tail = new LedgerTail(this::getLedger, this::parse, liveWriter, batchWriter, metrics,
+                FETCH_THREADS, TRANSFORM_THREADS, PIPELINE_CAPACITY, ledgerIndex);
+        for (long[] gap : progress.gaps(START_LEDGER, ledgerIndex)) {
+            tail.backfill(gap[0], gap[1]);
+        }
+        // Stop on Ctrl-C or kill, after the pending batches are written
+        Thread tailThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            tailThread.interrupt();
+            try {
+                tailThread.join(60_000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "tail-shutdown"));
+        try (LedgerSubscription subscription = new LedgerSubscription(RIPPLED_WS_URL, tail::validated)) {
+            subscription.start();
+            tail.run();
+        }
+    }
+
+    /**
+     * Ingests only the ledgers that are missing below the last completed one,
+     * e.g. after a tail was stopped or a range failed halfway.
+     */
+    public void fillGaps() throws Exception {
+        long ledgerIndex = prepare();
+        List<long[]> gaps = progress.gaps(START_LEDGER, ledgerIndex);
+        System.out.println("Filling " + gaps.size() + " gaps below ledger " + ledgerIndex);
+        IngestPipeline<byte[]> pipeline = new IngestPipeline<>(
+                this::getLedger, this::parse, batchWriter::add,
+                FETCH_THREADS, TRANSFORM_THREADS, PIPELINE_CAPACITY);
+        for (long[] gap : gaps) {
+            System.out.println("Filling ledgers " + gap[0] + " up to " + gap[1]);
+            pipeline.run(gap[0], gap[1]);
+            batchWriter.flush();
+        }
+    }
+
+    /**
+     * Ingests all ledgers up to <code>indexer.parallel.to</code> with a number
+     * of workers, together with any other processes using the same queue.
+     * Each process has its own ledger cache, and its lineage index only gets
+     * the activations of the partitions it ingests itself; the next start
+     * finds it misses the others and rebuilds it from the graph.
+     */
+    public void parallel() throws Exception {
+        prepare();
+        long to = PARALLEL_TO >= 0 ? PARALLEL_TO : validatedLedger() + 1;
+        try (WorkQueue queue = PARALLEL_QUEUE_FILE != null
+                ? new FileWorkQueue(Paths.get(PARALLEL_QUEUE_FILE), PARALLEL_LEASE_MILLIS)
+                : new Neo4jWorkQueue(neo4jDriver, database, PARALLEL_LEASE_MILLIS)) {
+            queue.init(START_LEDGER, to, PARALLEL_PARTITION_SIZE);
+            System.out.println("Ingesting up to ledger " + to + " with " + PARALLEL_WORKERS + " workers, " + queue.remaining() + " partitions to go");
+            ParallelIngester ingester = new ParallelIngester(queue, this::getLedger, this::parse, (worker) -> {
+                BatchWriter writer = new BatchWriter(neo4jDriver, database, walletRegistry, metrics, BATCH_LEDGERS, BATCH_ROWS, BATCH_FLUSH_INTERVAL_MILLIS);
+                writer.setProgress(progress, worker);
+                if (LINEAGE_ENABLED) {
+                    writer.setLineage(lineage);
+                }
+                return writer;
+            }, progress, PARALLEL_WORKERS, FETCH_THREADS, TRANSFORM_THREADS, PIPELINE_CAPACITY, PARALLEL_LEASE_MILLIS);
+            ingester.run(WORKER_NAME);
+            System.out.println(queue.remaining() + " partitions not done");
+        }
+    }
+
+    /**
+     * Rebuilds the {@link WalletAggregates} of all wallets from the graph,
+     * e.g. after a bulk import. Don't ingest while this runs.
+     */
+    public void recomputeAggregates() {
+        createSchema(neo4jDriver, database);
+        long start = System.currentTimeMillis();
+        long wallets = WalletAggregates.recompute(neo4jDriver, database, AGGREGATES_PAGE_SIZE);
+        System.out.println("Recomputed the aggregates of " + wallets + " wallets in " + (System.currentTimeMillis() - start) / 1000 + "s");
+    }
+
+    /**
+     * Sets up the graph, the wallet registry and the progress.
+     *
+     * @return the ledger after the last completed one
+     */
+    private long prepare() throws Exception {
+        startMonitoring();
+        createSchema(neo4jDriver, database);
+        System.out.println("Registering known wallets, using at most " + WalletRegistry.bytesFor(WALLET_REGISTRY_SIZE) / (1024 * 1024) + "MB");
+        System.out.println("Registered " + walletRegistry.warm(neo4jDriver, database) + " wallets");
+        progress.load(neo4jDriver, database, PROGRESS_TRUST_LEDGERS, PROGRESS_LEGACY_REWIND);
+        if (LINEAGE_ENABLED) {
+            loadLineage();
+        }
+        long ledgerIndex = progress.last();
+        if (ledgerIndex == -1) {
+            initialSetup();
+            return START_LEDGER;
+        }
+        return Math.max(ledgerIndex + 1, START_LEDGER);
+    }
+
+    /**
+     * Loads the lineage index, or rebuilds it from the graph if it misses
+     * ledgers that are completed, e.g. because the indexer stopped before
+     * saving it.
+     */
+    private void loadLineage() throws IOException {
+        LedgerRangeSet completed = progress.completed();
+        if (lineageFile != null && lineage.load(lineageFile) && lineage.isUpToDate(completed)) {
+            System.out.println("Loaded " + lineage);
+        } else {
+            System.out.println("Rebuilding the lineage index from the graph");
+            lineage.rebuild(neo4jDriver, database, completed);
+            System.out.println("Rebuilt " + lineage);
+        }
+        lineageLoaded = true;
+        monitor.scheduleWithFixedDelay(lineage::relabel, LINEAGE_RELABEL_MILLIS, LINEAGE_RELABEL_MILLIS, TimeUnit.MILLISECONDS);
+        if (LINEAGE_PORT >= 0) {
+            lineageServer = new LineageServer(lineage, LINEAGE_PORT);
+            lineageServer.start();
+        }
+        if (lineageFile != null) {
+            monitor.scheduleWithFixedDelay(this::saveLineage, LINEAGE_SAVE_SECONDS, LINEAGE_SAVE_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void saveLineage() {
+        // Not before it is loaded, that would overwrite it with nothing
+        if (!lineageLoaded || lineageFile == null) {
+            return;
+        }
+        try {
+            lineage.save(lineageFile);
+        } catch (IOException ex) {
+            System.err.println("Could not save the lineage index: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Creates the constraints and indexes, unless they already exist. Also run
+     * on a graph that was bulk imported with the {@link BulkExporter}.
+     */
+    static void createSchema(Driver neo4jDriver, String database) {
+        try (Session session = neo4jDriver.session(SessionConfig.forDatabase(database))) {
+            session.writeTransaction((tx) -> {
+                tx.run("CREATE CONSTRAINT IF NOT EXISTS ON (o:Ledger) ASSERT o.ledgerHash IS UNIQUE");
+                tx.run("CREATE CONSTRAINT IF NOT EXISTS ON (o:Wallet) ASSERT o.address IS UNIQUE");
+                tx.run("CREATE CONSTRAINT IF NOT EXISTS ON (o:Payment) ASSERT o.hash IS UNIQUE");
+                tx.run("CREATE CONSTRAINT IF NOT EXISTS ON (o:Checkpoint) ASSERT o.name IS UNIQUE");
+                tx.run("CREATE INDEX IF NOT EXISTS FOR (o:Ledger) ON (o.ledgerIndex)");
+                tx.run("CREATE INDEX IF NOT EXISTS FOR (o:Ledger) ON (o.closeTime)");
+                tx.run("CREATE INDEX IF NOT EXISTS FOR (o:Payment) ON (o.ledgerIndex)");
+                tx.run("CREATE INDEX IF NOT EXISTS FOR (o:Payment) ON (o.date)");
+                tx.run("CREATE INDEX IF NOT EXISTS FOR (o:Payment) ON (o.amount)");
+                return null;
+            });
+        }
+    }
+
+    private void initialSetup() {
+        batchWriter.add(transformer.genesisRows());
+        batchWriter.flush();
+    }
+
+    /**
+     * Exposes the metrics over JMX and HTTP, and starts logging a summary and
+     * polling for the latest validated ledger.
+     */
+    private void startMonitoring() throws Exception {
+        metrics.register();
+        if (METRICS_PORT >= 0) {
+            metricsServer = new MetricsServer(metrics, METRICS_PORT);
+            metricsServer.start();
+        }
+        monitor.scheduleAtFixedRate(() -> {
+            metrics.tick();
+            System.out.println(metrics.summary());
+        }, METRICS_REPORT_SECONDS, METRICS_REPORT_SECONDS, TimeUnit.SECONDS);
+        monitor.scheduleWithFixedDelay(this::pollValidatedLedger, 0, VALIDATED_POLL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops what {@link #startMonitoring()} started and prints the final
+     * numbers. Only once, from {@link #close()}.
+     */
+    private void stopMonitoring() {
+        monitor.shutdownNow();
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+        if (lineageServer != null) {
+            lineageServer.close();
+        }
+        System.out.println(walletRegistry);
+        System.out.println(metrics.summary());
+        // Whatever sampled lines are still queued
+        try {
+            SampledLog.flush(5_000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long validatedLedger() throws IOException, InterruptedException {
+        ObjectNode params = JsonNodeFactory.instance.objectNode();
+        params.put("ledger_index", "validated");
+        return rippledClient.request("ledger", params).path("ledger_index").asLong(-1);
+    }
+
+    private void pollValidatedLedger() {
+        try {
+            metrics.setValidatedLedger(validatedLedger());
+        } catch (IOException ex) {
+            System.err.println("Could not get the validated ledger: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the ledger JSON as cached, or as rippled sent it
+     */
+    private byte[] getLedger(long ledgerIndex) throws IOException, InterruptedException {
+        SampledLog.sampled("fetch", () -> "Getting ledger: " + ledgerIndex);
+        long start = System.nanoTime();
+        byte[] cached = cache.getCachedLedgerBytes(ledgerIndex);
+        metrics.observe(Stage.CACHE_LOOKUP, start);
+        if (null != cached) {
+            metrics.cacheHit();
+            return cached;
+
+        } else {
+            metrics.cacheMiss();
+            start = System.nanoTime();
+            byte[] result = rippledClient.ledger(ledgerIndex);
+            metrics.observe(Stage.RIPPLED_FETCH, start);
+            cache.cacheLedger(result, ledgerIndex);
+            return result;
+        }
+    }
+
+    private LedgerRows parse(byte[] ledger) throws IOException {
+        long start = System.nanoTime();
+        LedgerRows rows = parser.toRows(ledger);
+        metrics.observe(Stage.PARSE, start);
+        return rows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        try (Main m = new Main("bolt://localhost:7687", "user", "password", "database", Paths.get("/cachePath/"))) {
+            switch (MODE) {
+                case TAIL:
+                    m.tail();
+                    break;
+                case FILL_GAPS:
+                    m.fillGaps();
+                    break;
+                case PARALLEL:
+                    m.parallel();
+                    break;
+                case AGGREGATES:
+                    m.recomputeAggregates();
+                    break;
+                default:
+                    m.run();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Result;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+import org.neo4j.driver.Values;
+
+/**
+ * A {@link WorkQueue} of <code>(:Partition {from, to, state})</code> nodes in
+ * the graph being written, so indexers on different machines can share it.
+ * Leases are timed with the clock of the Neo4j server.
+ *
+ * A claim locks the candidate partition (by setting a property) before it
+ * checks it again, so two workers picking the same candidate don't both get
+ * it; the loser tries the next one.
+ *
+ * @author smelis
+ */
+public class Neo4jWorkQueue implements WorkQueue {
+
+    private static final String AVAILABLE = "(p.state = 'open' OR (p.state = 'leased' AND p.leaseUntil < timestamp()))";
+
+    private static final String PARTITIONS = "MATCH (p:Partition) RETURN p.from AS from, p.to AS to";
+
+    private static final String INIT = "UNWIND $partitions AS partition\n"
+            + "MERGE (p:Partition { from: partition[0] })\n"
+            + " ON CREATE SET p.to = partition[1], p.state = 'open'";
+
+    private static final String CLAIM = "MATCH (p:Partition) WHERE " + AVAILABLE + "\n"
+            + "WITH p ORDER BY p.from LIMIT 1\n"
+            + "SET p._lock = true\n"
+            + "WITH p, " + AVAILABLE + " AS claimed\n"
+            + "FOREACH (x IN CASE WHEN claimed THEN [1] ELSE [] END |\n"
+            + " SET p.state = 'leased', p.worker = $worker, p.leaseUntil = timestamp() + $leaseMillis)\n"
+            + "REMOVE p._lock\n"
+            + "RETURN p.from AS from, p.to AS to, claimed";
+
+    private static final String RENEW = "MATCH (p:Partition { from: $from })\n"
+            + "WHERE p.state = 'leased' AND p.worker = $worker\n"
+            + "SET p.leaseUntil = timestamp() + $leaseMillis\n"
+            + "RETURN count(p) AS renewed";
+
+    private static final String COMPLETE = "MATCH (p:Partition { from: $from })\n"
+            + "SET p.state = 'done', p.worker = $worker\n"
+            + "REMOVE p.leaseUntil";
+
+    private static final int MAX_CLAIM_ATTEMPTS = 10;
+
+    private final Driver neo4jDriver;
+    private final String database;
+    private final long leaseMillis;
+
+    public Neo4jWorkQueue(Driver neo4jDriver, String database, long leaseMillis) {
+        this.neo4jDriver = neo4jDriver;
+        this.database = database;
+        this.leaseMillis = leaseMillis;
+    }
+
+    @Override
+    public void init(long from, long to, int partitionSize) {
+        try (Session session = session()) {
+            session.writeTransaction((tx) -> tx.run("CREATE CONSTRAINT IF NOT EXISTS ON (p:Partition) ASSERT p.from IS UNIQUE").consume());
+            // Until nothing is missing: where another process got to a
+            // partition first, it may end before this one would have
+            while (true) {
+                Map<Long, Long> ends = new HashMap<>();
+                for (Record partition : session.readTransaction((tx) -> tx.run(PARTITIONS).list())) {
+                    ends.put(partition.get("from").asLong(), partition.get("to").asLong());
+                }
+                List<List<Long>> missing = new ArrayList<>();
+                for (long[] partition : WorkQueue.missingPartitions(ends, from, to, partitionSize)) {
+                    missing.add(Arrays.asList(partition[0], partition[1]));
+                }
+                if (missing.isEmpty()) {
+                    break;
+                }
+                session.writeTransaction((tx) -> tx.run(INIT, Values.parameters("partitions", missing)).consume());
+            }
+        }
+    }
+
+    @Override
+    public long[] claim(String worker) {
+        try (Session session = session()) {
+            for (int attempt = 0; attempt < MAX_CLAIM_ATTEMPTS; attempt++) {
+                Record claim = session.writeTransaction((tx) -> {
+                    Result result = tx.run(CLAIM, Values.parameters("worker", worker, "leaseMillis", leaseMillis));
+                    return result.hasNext() ? result.next() : null;
+                });
+                if (claim == null) {
+                    return null;
+                }
+                if (claim.get("claimed").asBoolean()) {
+                    return new long[]{claim.get("from").asLong(), claim.get("to").asLong()};
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean renew(long[] partition, String worker) {
+        try (Session session = session()) {
+            return session.writeTransaction((tx) -> tx.run(RENEW, Values.parameters("from", partition[0], "worker", worker, "leaseMillis", leaseMillis))
+                    .single().get("renewed").asLong()) > 0;
+        }
+    }
+
+    @Override
+    public void complete(long[] partition, String worker) {
+        try (Session session = session()) {
+            session.writeTransaction((tx) -> tx.run(COMPLETE, Values.parameters("from", partition[0], "worker", worker)).consume());
+        }
+    }
+
+    @Override
+    public int remaining() {
+        try (Session session = session()) {
+            return session.readTransaction((tx) -> tx.run("MATCH (p:Partition) WHERE p.state <> 'done' RETURN count(p) AS remaining")
+                    .single().get("remaining").asInt());
+        }
+    }
+
+    @Override
+    public void close() {
+        // The driver belongs to the caller
+    }
+
+    private Session session() {
+        return neo4jDriver.session(SessionConfig.forDatabase(database));
+    }
+
+}
@@ -0,0 +1,172 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Ingests the partitions of a {@link WorkQueue} with a number of workers,
+ * each running its own {@link IngestPipeline} into its own
+ * {@link BatchWriter}, until every partition of the queue is done. Other
+ * processes can work on the same queue at the same time; while all that is
+ * left is leased to them, workers keep asking, waiting longer every time, so
+ * they take over what a process that died leaves behind.
+ *
+ * Workers write ledgers in whatever order they get them, so their writers
+ * MERGE every wallet they refer to, and each records its progress in its own
+ * Checkpoint. Ledgers the {@link ProgressTracker} knows are completed are
+ * skipped, so a partition that was interrupted halfway picks up where it was.
+ * The driver retries transactions that fail on a deadlock or another
+ * transient error.
+ *
+ * A worker that fails on a partition leaves it to be leased again later, and
+ * stops after failing a few times in a row. Leases of the partitions being
+ * worked on are renewed every third of the lease time.
+ *
+ * @author smelis
+ */
+public class ParallelIngester {
+
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    private static final long FAILURE_BACKOFF_MILLIS = 10_000;
+    private static final long BASE_IDLE_MILLIS = 1_000;
+    private static final long MAX_IDLE_MILLIS = 60_000;
+
+    private final WorkQueue queue;
+    private final IngestPipeline.Stage<Long, byte[]> fetcher;
+    private final IngestPipeline.Stage<byte[], LedgerRows> transformer;
+    private final Function<String, BatchWriter> writers;
+    private final ProgressTracker progress;
+    private final int workers;
+    private final int fetchThreads;
+    private final int transformThreads;
+    private final int capacity;
+    private final long leaseMillis;
+    // The partition each worker is on, for renewing the leases
+    private final Map<String, long[]> leased = new ConcurrentHashMap<>();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * @param writers makes the writer of the worker with the given name; it
+     * should record its progress under that name
+     */
+    public ParallelIngester(WorkQueue queue, IngestPipeline.Stage<Long, byte[]> fetcher, IngestPipeline.Stage<byte[], LedgerRows> transformer,
+            Function<String, BatchWriter> writers, ProgressTracker progress,
+            int workers, int fetchThreads, int transformThreads, int capacity, long leaseMillis) {
+        this.queue = queue;
+        this.fetcher = fetcher;
+        this.transformer = transformer;
+        this.writers = writers;
+        this.progress = progress;
+        this.workers = workers;
+        this.fetchThreads = fetchThreads;
+        this.transformThreads = transformThreads;
+        this.capacity = capacity;
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Runs the workers, named after the given prefix, until they are done.
+     */
+    public void run(String name) throws InterruptedException {
+        ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "lease-renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        renewer.scheduleWithFixedDelay(this::renewLeases, leaseMillis / 3, leaseMillis / 3, TimeUnit.MILLISECONDS);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 1; i <= workers; i++) {
+            String worker = name + "-" + i;
+            Thread thread = new Thread(() -> work(worker), "worker-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            threads.forEach(Thread::interrupt);
+            renewer.shutdownNow();
+        }
+        System.out.println("Workers done: " + completed.get() + " partitions completed, " + failed.get() + " failed");
+    }
+
+    private void work(String worker) {
+        BatchWriter writer = writers.apply(worker);
+        writer.setMergeEndpoints(true);
+        IngestPipeline<byte[]> pipeline = new IngestPipeline<>(fetcher, transformer, writer::add, fetchThreads, transformThreads, capacity);
+        int failures = 0;
+        long idleMillis = BASE_IDLE_MILLIS;
+        while (!Thread.currentThread().isInterrupted() && failures < MAX_CONSECUTIVE_FAILURES) {
+            long[] partition;
+            try {
+                partition = queue.claim(worker);
+                if (partition == null) {
+                    if (queue.remaining() == 0) {
+                        break;
+                    }
+                    // The rest is leased to others, until they finish or their leases run out
+                    sleep(idleMillis);
+                    idleMillis = Math.min(MAX_IDLE_MILLIS, idleMillis * 2);
+                    continue;
+                }
+            } catch (Exception ex) {
+                System.err.println(worker + " could not claim a partition: " + ex);
+                failures++;
+                sleep(FAILURE_BACKOFF_MILLIS);
+                continue;
+            }
+            idleMillis = BASE_IDLE_MILLIS;
+            leased.put(worker, partition);
+            try {
+                for (long[] gap : progress.gaps(partition[0], partition[1])) {
+                    pipeline.run(gap[0], gap[1]);
+                }
+                writer.flush();
+                queue.complete(partition, worker);
+                completed.incrementAndGet();
+                System.out.println(worker + " completed ledgers " + partition[0] + " up to " + partition[1]);
+                failures = 0;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                System.err.println(worker + " failed on ledgers " + partition[0] + " up to " + partition[1] + ": " + ex);
+                failed.incrementAndGet();
+                failures++;
+                sleep(FAILURE_BACKOFF_MILLIS);
+            } finally {
+                leased.remove(worker);
+            }
+        }
+    }
+
+    private void renewLeases() {
+        leased.forEach((worker, partition) -> {
+            try {
+                if (!queue.renew(partition, worker)) {
+                    System.err.println(worker + " lost its lease on ledgers " + partition[0] + " up to " + partition[1]);
+                }
+            } catch (Exception ex) {
+                System.err.println(worker + " could not renew its lease: " + ex);
+            }
+        });
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
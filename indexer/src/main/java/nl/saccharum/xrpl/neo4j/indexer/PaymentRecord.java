@@ -0,0 +1,167 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parts of a successful Payment transaction that we index, as extracted
+ * by the {@link LedgerExtractor}.
+ *
+ * @author smelis
+ */
+public class PaymentRecord {
+
+    /**
+     * An XRP amount in drops, or an issued currency amount.
+     */
+    public static final class Amount {
+
+        private final long drops;
+        private final String value;
+        private final String currency;
+        private final String issuer;
+
+        private Amount(long drops, String value, String currency, String issuer) {
+            this.drops = drops;
+            this.value = value;
+            this.currency = currency;
+            this.issuer = issuer;
+        }
+
+        public static Amount xrp(long drops) {
+            return new Amount(drops, null, null, null);
+        }
+
+        public static Amount issued(String value, String currency, String issuer) {
+            return new Amount(0, value, currency, issuer);
+        }
+
+        public boolean isXrp() {
+            return currency == null;
+        }
+
+        public long getDrops() {
+            return drops;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+
+        public String getIssuer() {
+            return issuer;
+        }
+    }
+
+    private String hash;
+    private String account;
+    private String destination;
+    private long fee;
+    private Long sourceTag;
+    private Long destinationTag;
+    private Amount amount;
+    private Amount deliveredAmount;
+    private boolean activation;
+    private final List<String> activatedAccounts = new ArrayList<>(1);
+
+    public String getHash() {
+        return hash;
+    }
+
+    void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    void setAccount(String account) {
+        this.account = account;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    /**
+     * @return the fee in drops
+     */
+    public long getFee() {
+        return fee;
+    }
+
+    void setFee(long fee) {
+        this.fee = fee;
+    }
+
+    /**
+     * @return the source tag, or null if there is none
+     */
+    public Long getSourceTag() {
+        return sourceTag;
+    }
+
+    void setSourceTag(Long sourceTag) {
+        this.sourceTag = sourceTag;
+    }
+
+    /**
+     * @return the destination tag, or null if there is none
+     */
+    public Long getDestinationTag() {
+        return destinationTag;
+    }
+
+    void setDestinationTag(Long destinationTag) {
+        this.destinationTag = destinationTag;
+    }
+
+    public Amount getAmount() {
+        return amount;
+    }
+
+    void setAmount(Amount amount) {
+        this.amount = amount;
+    }
+
+    /**
+     * @return the delivered amount, or null if the metadata doesn't have it
+     */
+    public Amount getDeliveredAmount() {
+        return deliveredAmount;
+    }
+
+    void setDeliveredAmount(Amount deliveredAmount) {
+        this.deliveredAmount = deliveredAmount;
+    }
+
+    /**
+     * @return whether the first AccountRoot this payment created has an
+     * account, the same check as {@link LedgerTransformer} does on xrpl4j
+     * transactions
+     */
+    public boolean isActivation() {
+        return activation;
+    }
+
+    void setActivation(boolean activation) {
+        this.activation = activation;
+    }
+
+    /**
+     * @return the accounts of the AccountRoots this payment created
+     */
+    public List<String> getActivatedAccounts() {
+        return activatedAccounts;
+    }
+
+}
@@ -0,0 +1,129 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.Collection;
+import java.util.List;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Result;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.Values;
+
+/**
+ * Knows which ledgers are completely in the graph, whatever order they were
+ * written in, so ingestion can resume, and gaps be filled, without asking the
+ * graph which Ledger nodes it has.
+ *
+ * The completed ledgers are kept as a {@link LedgerRangeSet}, in memory and
+ * in <code>(:Checkpoint {name})</code> nodes. Every {@link BatchWriter} sets
+ * the ranges of its own Checkpoint in the transaction that writes its batch,
+ * so a checkpoint never claims a ledger that isn't committed, and a ledger
+ * that is committed is in some checkpoint. Writers each use their own
+ * Checkpoint, so concurrent ones don't overwrite each other's progress; what
+ * is completed is the union of them all. Thread safe.
+ *
+ * @author smelis
+ */
+public class ProgressTracker {
+
+    private final LedgerRangeSet completed = new LedgerRangeSet();
+
+    /**
+     * Loads the progress from the Checkpoint nodes. A graph without them is
+     * read from its Ledger nodes once. Only a graph bulk imported with the
+     * {@link BulkExporter} is known to have nothing but complete ledgers, so
+     * only then, with <code>trustLedgers</code>, do they all count. A graph
+     * from before there were checkpoints may have been written one statement
+     * at a time, so its last ledgers may be half written; the highest
+     * <code>rewind</code> Ledger nodes are left as a gap, to be ingested again
+     * (which MERGEs what is already there).
+     */
+    public void load(Driver neo4jDriver, String database, boolean trustLedgers, int rewind) {
+        try (Session session = neo4jDriver.session(SessionConfig.forDatabase(database))) {
+            Result checkpoints = session.run("MATCH (c:Checkpoint) RETURN c.name AS name, c.ranges AS ranges");
+            boolean found = false;
+            while (checkpoints.hasNext()) {
+                Record record = checkpoints.next();
+                List<Long> ranges = record.get("ranges").asList(Value::asLong);
+                long[] array = new long[ranges.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = ranges.get(i);
+                }
+                synchronized (this) {
+                    completed.addAll(LedgerRangeSet.fromArray(array));
+                }
+                found = true;
+            }
+            if (!found) {
+                System.out.println("No checkpoints yet, reading the ledgers in the graph");
+                Value highest = session.run("MATCH (l:Ledger) RETURN max(l.ledgerIndex) AS ledgerIndex").single().get("ledgerIndex");
+                long upTo = highest.isNull() ? -1 : highest.asLong();
+                if (!trustLedgers && upTo >= 0) {
+                    upTo -= rewind;
+                    System.err.println("Counting only the ledgers up to " + upTo + " as completed, ledgers " + (upTo + 1) + " up to "
+                            + highest.asLong() + " may be half written and will be ingested again; if this graph was bulk imported,"
+                            + " start with -Dindexer.progress.trustLedgers=true instead");
+                }
+                Result ledgers = session.run("MATCH (l:Ledger) WHERE l.ledgerIndex <= $upTo RETURN l.ledgerIndex AS ledgerIndex ORDER BY ledgerIndex",
+                        Values.parameters("upTo", upTo));
+                while (ledgers.hasNext()) {
+                    long ledgerIndex = ledgers.next().get("ledgerIndex").asLong();
+                    synchronized (this) {
+                        completed.add(ledgerIndex);
+                    }
+                }
+            }
+        }
+        System.out.println("Completed ledgers: " + this);
+    }
+
+    /**
+     * @return the ranges to store in a Checkpoint together with the given
+     * ledgers: what is completed so far plus those
+     */
+    public synchronized long[] checkpoint(Collection<Long> ledgers) {
+        LedgerRangeSet ranges = completed.copy();
+        ledgers.forEach(ranges::add);
+        return ranges.toArray();
+    }
+
+    /**
+     * Marks the ledgers as completed, after their batch has committed.
+     */
+    public synchronized void committed(Collection<Long> ledgers) {
+        ledgers.forEach(completed::add);
+    }
+
+    /**
+     * @return a copy of the completed ledgers
+     */
+    public synchronized LedgerRangeSet completed() {
+        return completed.copy();
+    }
+
+    public synchronized boolean isCompleted(long ledgerIndex) {
+        return completed.contains(ledgerIndex);
+    }
+
+    /**
+     * @return the highest completed ledger, or -1 if there is none
+     */
+    public synchronized long last() {
+        return completed.last();
+    }
+
+    /**
+     * @return the ranges of ledgers between <code>from</code> (inclusive) and
+     * <code>to</code> (exclusive) that aren't completed
+     */
+    public synchronized List<long[]> gaps(long from, long to) {
+        return completed.gaps(from, to);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return completed.size() + " ledgers in " + completed.rangeCount() + " ranges, up to " + completed.last();
+    }
+
+}
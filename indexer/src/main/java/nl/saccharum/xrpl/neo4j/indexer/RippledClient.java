@@ -0,0 +1,440 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * JSON-RPC client for one or more rippled servers.
+ *
+ * Every endpoint has its own token bucket. Its rate adapts to what the server
+ * tells us: it creeps up while responses are fast, backs off when they get
+ * slow and is halved when the server says we're going too fast (HTTP 429/503,
+ * <code>slowDown</code> or <code>tooBusy</code>). Endpoints that keep failing
+ * are ejected for a while, with the ejection time doubling every time. Failed
+ * calls are retried, on whichever endpoint looks best at that moment, with
+ * exponential backoff and jitter. A server that doesn't have the ledger asked
+ * for (<code>lgrNotFound</code>, e.g. because it keeps less history) isn't
+ * failing; the call is retried on the other servers first.
+ *
+ * The <code>result</code> is handed out as the raw bytes rippled sent, so it
+ * can be cached as-is and parsed however the caller likes.
+ *
+ * Thread safe.
+ *
+ * @author smelis
+ */
+public class RippledClient {
+
+    private static final MediaType JSON = MediaType.get("application/json");
+    private static final Set<String> RATE_LIMIT_ERRORS = new HashSet<>(Arrays.asList("slowDown", "tooBusy"));
+    // rippled errors that are worth trying again, possibly on another server
+    private static final Set<String> TRANSIENT_ERRORS = new HashSet<>(Arrays.asList("noNetwork", "noCurrent", "noClosed", "internal"));
+    // Errors about what this server has, another one might have it
+    private static final Set<String> MISSING_ERRORS = new HashSet<>(Arrays.asList("lgrNotFound"));
+
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long BASE_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final int EJECT_AFTER_FAILURES = 3;
+    private static final long BASE_EJECTION_MILLIS = 5_000;
+    private static final long MAX_EJECTION_MILLIS = 10 * 60_000;
+
+    /**
+     * Thrown when rippled answers with an error.
+     */
+    public static class RippledException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String error;
+
+        public RippledException(String error, String message) {
+            super(error + (message != null ? ": " + message : ""));
+            this.error = error;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final OkHttpClient httpClient;
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final double minRate;
+    private final double maxRate;
+    private final long targetLatencyMillis;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    /**
+     * @param urls the servers to spread the calls over
+     * @param initialRate requests per second per server to start with
+     * @param maxRate requests per second per server never to exceed
+     * @param targetLatencyMillis response time under which the rate is
+     * increased
+     */
+    public RippledClient(List<HttpUrl> urls, double initialRate, double maxRate, long targetLatencyMillis) {
+        this(urls, initialRate, maxRate, targetLatencyMillis, MAX_ATTEMPTS, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * With other retries than the default ones, for tests that shouldn't wait
+     * half a minute for a call to give up.
+     *
+     * @param maxAttempts calls before giving up
+     * @param baseBackoffMillis wait before the first retry, doubled for every
+     * next one
+     * @param maxBackoffMillis longest wait between retries
+     */
+    RippledClient(List<HttpUrl> urls, double initialRate, double maxRate, long targetLatencyMillis,
+            int maxAttempts, long baseBackoffMillis, long maxBackoffMillis) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("No rippled endpoints");
+        }
+        this.minRate = Math.min(0.5, initialRate);
+        this.maxRate = maxRate;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        for (HttpUrl url : urls) {
+            endpoints.add(new Endpoint(url, initialRate));
+        }
+        this.httpClient = new OkHttpClient.Builder()
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * @return the <code>result</code> of the ledger method for the given
+     * ledger, with all transactions expanded, as the UTF-8 JSON rippled sent
+     */
+    public byte[] ledger(long ledgerIndex) throws IOException, InterruptedException {
+        ObjectNode params = objectMapper.createObjectNode();
+        params.put("ledger_index", ledgerIndex);
+        params.put("transactions", true);
+        params.put("expand", true);
+        return requestBytes("ledger", params);
+    }
+
+    /**
+     * Calls a method, retrying on failure.
+     *
+     * @return the <code>result</code> of the response
+     */
+    public JsonNode request(String method, ObjectNode params) throws IOException, InterruptedException {
+        return objectMapper.readTree(requestBytes(method, params));
+    }
+
+    /**
+     * Calls a method, retrying on failure.
+     *
+     * @return the <code>result</code> of the response as the UTF-8 JSON
+     * rippled sent
+     */
+    public byte[] requestBytes(String method, ObjectNode params) throws IOException, InterruptedException {
+        ObjectNode request = objectMapper.createObjectNode();
+        request.put("method", method);
+        request.putArray("params").add(params);
+        byte[] body = objectMapper.writeValueAsBytes(request);
+        IOException failure = null;
+        // Servers that said they don't have what was asked for
+        Set<Endpoint> missing = new HashSet<>();
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            if (attempt > 0) {
+                backoff(attempt);
+            }
+            Endpoint endpoint = select(missing);
+            endpoint.limiter.acquire();
+            long start = System.nanoTime();
+            endpoint.started();
+            try {
+                byte[] result = call(endpoint, body);
+                endpoint.succeeded(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                return result;
+            } catch (RippledException ex) {
+                failure = ex;
+                if (RATE_LIMIT_ERRORS.contains(ex.getError())) {
+                    endpoint.rateLimited();
+                } else if (TRANSIENT_ERRORS.contains(ex.getError())) {
+                    endpoint.failed();
+                } else if (MISSING_ERRORS.contains(ex.getError())) {
+                    // A healthy answer, just not from the right server
+                    endpoint.succeeded(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    missing.add(endpoint);
+                } else {
+                    // The request itself is wrong, don't hold it against the server
+                    endpoint.succeeded(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    throw ex;
+                }
+            } catch (IOException ex) {
+                failure = ex;
+                endpoint.failed();
+            } finally {
+                endpoint.finished();
+            }
+            System.err.println(endpoint.url + " " + method + " failed (attempt " + (attempt + 1) + "): " + failure.getMessage());
+        }
+        throw failure;
+    }
+
+    private byte[] call(Endpoint endpoint, byte[] body) throws IOException {
+        Request request = new Request.Builder()
+                .url(endpoint.url)
+                .post(RequestBody.create(body, JSON))
+                .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (response.code() == 429 || response.code() == 503) {
+                throw new RippledException("slowDown", "HTTP " + response.code());
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP " + response.code());
+            }
+            ResponseBody responseBody = response.body();
+            if (responseBody == null) {
+                throw new IOException("Empty response");
+            }
+            return result(responseBody.bytes());
+        }
+    }
+
+    /**
+     * Cuts the <code>result</code> object out of a response, only looking at
+     * its top level fields to see whether it is an error.
+     */
+    private byte[] result(byte[] response) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(response)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Response is not an object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                if (parser.nextToken() != JsonToken.START_OBJECT || !"result".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                int start = (int) parser.getTokenLocation().getByteOffset();
+                String status = null;
+                String error = null;
+                String errorMessage = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String resultField = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("status".equals(resultField)) {
+                        status = parser.getValueAsString();
+                    } else if ("error".equals(resultField)) {
+                        error = parser.getValueAsString();
+                    } else if ("error_message".equals(resultField)) {
+                        errorMessage = parser.getValueAsString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                if ("error".equals(status)) {
+                    throw new RippledException(error, errorMessage);
+                }
+                int end = (int) parser.getTokenLocation().getByteOffset() + 1;
+                return Arrays.copyOfRange(response, start, end);
+            }
+            throw new IOException("Response without result");
+        }
+    }
+
+    /**
+     * Picks the endpoint that is expected to answer soonest, taking the
+     * number of requests already outstanding into account. The endpoints to
+     * avoid are only picked when there is nothing else.
+     */
+    private Endpoint select(Set<Endpoint> avoid) throws InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Endpoint best = null;
+            double bestScore = Double.MAX_VALUE;
+            Endpoint bestAvoided = null;
+            double bestAvoidedScore = Double.MAX_VALUE;
+            long firstReturn = Long.MAX_VALUE;
+            for (Endpoint endpoint : endpoints) {
+                synchronized (endpoint) {
+                    if (endpoint.ejectedUntil > now) {
+                        firstReturn = Math.min(firstReturn, endpoint.ejectedUntil);
+                        continue;
+                    }
+                    double score = (endpoint.inFlight + 1) * Math.max(1, endpoint.latencyMillis) / endpoint.limiter.getRate();
+                    if (avoid.contains(endpoint)) {
+                        if (score < bestAvoidedScore) {
+                            bestAvoidedScore = score;
+                            bestAvoided = endpoint;
+                        }
+                    } else if (score < bestScore) {
+                        bestScore = score;
+                        best = endpoint;
+                    }
+                }
+            }
+            if (best != null) {
+                return best;
+            }
+            if (bestAvoided != null) {
+                return bestAvoided;
+            }
+            // Everything is ejected, wait for the first one to come back
+            Thread.sleep(Math.max(1, firstReturn - now));
+        }
+    }
+
+    private void backoff(int attempt) throws InterruptedException {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+        // Equal jitter: at least half of the ceiling, so retries do spread out but don't hammer
+        Thread.sleep(ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1));
+    }
+
+    /**
+     * @return a line per endpoint with its current rate, latency and state
+     */
+    public List<String> describeEndpoints() {
+        List<String> lines = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Endpoint endpoint : endpoints) {
+            synchronized (endpoint) {
+                lines.add(String.format("%s rate=%.1f/s latency=%dms inFlight=%d%s", endpoint.url, endpoint.limiter.getRate(),
+                        endpoint.latencyMillis, endpoint.inFlight, endpoint.ejectedUntil > now ? " ejected" : ""));
+            }
+        }
+        return Collections.unmodifiableList(lines);
+    }
+
+    private final class Endpoint {
+
+        private final HttpUrl url;
+        private final TokenBucket limiter;
+        private long latencyMillis = 0;
+        private int inFlight = 0;
+        private int consecutiveFailures = 0;
+        private int ejections = 0;
+        private long ejectedUntil = 0;
+        private long lastDecrease = 0;
+
+        Endpoint(HttpUrl url, double rate) {
+            this.url = url;
+            this.limiter = new TokenBucket(rate);
+        }
+
+        synchronized void started() {
+            inFlight++;
+        }
+
+        /**
+         * After every request, however it ended.
+         */
+        synchronized void finished() {
+            inFlight--;
+        }
+
+        synchronized void succeeded(long millis) {
+            consecutiveFailures = 0;
+            ejections = 0;
+            // Exponentially weighted moving average
+            latencyMillis = latencyMillis == 0 ? millis : (latencyMillis * 7 + millis) / 8;
+            if (latencyMillis < targetLatencyMillis) {
+                limiter.setRate(Math.min(maxRate, limiter.getRate() + maxRate / 100));
+            } else if (latencyMillis > 2 * targetLatencyMillis) {
+                decrease(0.9);
+            }
+        }
+
+        synchronized void rateLimited() {
+            decrease(0.5);
+        }
+
+        /**
+         * Lowers the rate, at most once a second: the responses to requests
+         * that were already in flight at the old rate say nothing new.
+         */
+        private void decrease(double factor) {
+            long now = System.currentTimeMillis();
+            if (now - lastDecrease >= 1000) {
+                lastDecrease = now;
+                limiter.setRate(Math.max(minRate, limiter.getRate() * factor));
+            }
+        }
+
+        synchronized void failed() {
+            // Make it look slow, so select() prefers the others
+            latencyMillis = Math.max(2 * latencyMillis, targetLatencyMillis);
+            if (++consecutiveFailures >= EJECT_AFTER_FAILURES) {
+                long ejection = Math.min(MAX_EJECTION_MILLIS, BASE_EJECTION_MILLIS << Math.min(ejections, 20));
+                ejections++;
+                consecutiveFailures = 0;
+                ejectedUntil = System.currentTimeMillis() + ejection;
+                System.err.println("Ejecting " + url + " for " + ejection + "ms");
+            }
+        }
+    }
+
+    /**
+     * Token bucket that lets callers reserve tokens ahead, so waiting callers
+     * are served in order without spinning.
+     */
+    static final class TokenBucket {
+
+        private double rate;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(double rate) {
+            this.rate = rate;
+            this.tokens = 1;
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        synchronized void setRate(double rate) {
+            refill();
+            this.rate = rate;
+        }
+
+        void acquire() throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                tokens -= 1;
+                waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            // Allow bursts of up to a second worth of tokens
+            tokens = Math.min(Math.max(1, rate), tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+        }
+    }
+
+}
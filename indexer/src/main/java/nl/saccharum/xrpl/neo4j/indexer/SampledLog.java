@@ -0,0 +1,80 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Console logging that stays off the ingestion threads: lines are queued and
+ * printed by a background thread. When the queue is full, lines are dropped
+ * rather than making the caller wait.
+ *
+ * Only for per item messages (every wallet, payment, ...), which are also
+ * sampled: only one in <code>indexer.log.sampleEvery</code> (default 1000) of
+ * each kind is logged, and the message isn't even built for the others. Set it
+ * to 1 to log everything. Progress and summaries are printed directly, since
+ * they must never be dropped.
+ *
+ * @author smelis
+ */
+public final class SampledLog {
+
+    private static final int SAMPLE_EVERY = Math.max(1, Integer.getInteger("indexer.log.sampleEvery", 1000));
+    private static final BlockingQueue<String> QUEUE = new ArrayBlockingQueue<>(Integer.getInteger("indexer.log.queueSize", 10_000));
+    private static final ConcurrentHashMap<String, AtomicLong> COUNTS = new ConcurrentHashMap<>();
+    private static final LongAdder DROPPED = new LongAdder();
+
+    static {
+        Thread writer = new Thread(() -> {
+            try {
+                while (true) {
+                    System.out.println(QUEUE.take());
+                }
+            } catch (InterruptedException ex) {
+                // Exiting
+            }
+        }, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private SampledLog() {
+    }
+
+    private static void info(String line) {
+        if (!QUEUE.offer(line)) {
+            DROPPED.increment();
+        }
+    }
+
+    /**
+     * Logs one in <code>indexer.log.sampleEvery</code> lines of the given
+     * kind, starting with the first.
+     */
+    public static void sampled(String kind, Supplier<String> line) {
+        long n = COUNTS.computeIfAbsent(kind, (k) -> new AtomicLong()).getAndIncrement();
+        if (n % SAMPLE_EVERY == 0) {
+            info(SAMPLE_EVERY > 1 ? line.get() + " (" + kind + " #" + (n + 1) + ")" : line.get());
+        }
+    }
+
+    public static long getDropped() {
+        return DROPPED.sum();
+    }
+
+    /**
+     * Waits, for at most the given time, until the queued lines have been
+     * printed.
+     */
+    public static void flush(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!QUEUE.isEmpty() && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+}
@@ -0,0 +1,457 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Caches ledgers in segment files, each covering a fixed range of
+ * <code>segmentSize</code> ledgers. Per segment there are two files:
+ * <ul>
+ * <li><code>&lt;first ledger&gt;.seg</code>: the records, appended in the order
+ * they were cached. A record is a 4 byte length, a 1 byte flags field and the
+ * (optionally deflated) ledger JSON.</li>
+ * <li><code>&lt;first ledger&gt;.idx</code>: one long per ledger in the range
+ * holding the record offset + 1, so 0 means not cached.</li>
+ * </ul>
+ * Both are read through memory mapped buffers. A record is only indexed after
+ * it has been written, so if the indexer dies halfway through a write an
+ * orphaned record is left behind, never a truncated ledger. Data files are
+ * forced to disk before their index when a segment is closed; a power failure
+ * before that can still leave an index pointing at a record that never made
+ * it to disk, which reads back as a corrupt ledger (the
+ * {@link CachePrefetcher} replaces those).
+ *
+ * The segment size is kept in <code>cache.properties</code>, since reading a
+ * cache with another segment size than it was written with would return the
+ * wrong ledgers.
+ *
+ * Only one process at a time can have a cache directory open: it holds a lock
+ * on <code>cache.lock</code> until it closes the cache, and another process
+ * opening it fails right away. Processes indexing in parallel each need their
+ * own cache directory.
+ *
+ * @author smelis
+ */
+public class SegmentedCacher implements LedgerCache {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 10_000;
+    private static final String PROPERTIES_FILE = "cache.properties";
+    private static final String SEGMENT_SIZE = "segmentSize";
+    private static final String LOCK_FILE = "cache.lock";
+    private static final int MAX_OPEN_SEGMENTS = 16;
+    private static final int RECORD_HEADER_SIZE = 5;
+    private static final byte FLAG_DEFLATED = 1;
+    // Data files are mapped in windows, since a single mapping can't exceed 2GB
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final Path cachePath;
+    private final int segmentSize;
+    private final boolean compress;
+    private final FileChannel lockChannel;
+    private final Map<Long, Segment> openSegments = new LinkedHashMap<Long, Segment>(MAX_OPEN_SEGMENTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Segment> eldest) {
+            if (size() > MAX_OPEN_SEGMENTS) {
+                eldest.getValue().closeQuietly();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Opens the cache with the segment size it was written with, or the
+     * default one if it is new.
+     */
+    public SegmentedCacher(Path cachePath) throws IOException {
+        this(cachePath, storedSegmentSize(cachePath, DEFAULT_SEGMENT_SIZE), false);
+    }
+
+    /**
+     * @param cachePath directory holding the segment files
+     * @param segmentSize number of ledgers per segment; must stay the same for
+     * the lifetime of a cache directory
+     * @param compress whether to deflate records before writing them (records
+     * that don't get any smaller are stored as-is)
+     * @throws IOException if the cache was written with another segment size,
+     * or another process has it open
+     */
+    public SegmentedCacher(Path cachePath, int segmentSize, boolean compress) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+        }
+        this.cachePath = cachePath;
+        this.segmentSize = segmentSize;
+        this.compress = compress;
+        Files.createDirectories(cachePath);
+        this.lockChannel = lock(cachePath);
+        try {
+            int stored = storedSegmentSize(cachePath, segmentSize);
+            if (stored != segmentSize) {
+                throw new IOException("Ledger cache " + cachePath + " has segments of " + stored + " ledgers, not " + segmentSize);
+            }
+            if (!Files.exists(cachePath.resolve(PROPERTIES_FILE))) {
+                Properties properties = new Properties();
+                properties.setProperty(SEGMENT_SIZE, Integer.toString(segmentSize));
+                try (OutputStream out = Files.newOutputStream(cachePath.resolve(PROPERTIES_FILE))) {
+                    properties.store(out, "Ledger cache");
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            lockChannel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return the channel holding the lock on the cache directory, released
+     * when it is closed
+     * @throws IOException if another process, or this one, has the directory
+     * locked already
+     */
+    private static FileChannel lock(Path cachePath) throws IOException {
+        FileChannel channel = FileChannel.open(cachePath.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException ex) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Ledger cache " + cachePath + " is in use by another indexer, give each process its own cache directory");
+        }
+        return channel;
+    }
+
+    /**
+     * @return the segment size in the properties of the cache, or else the
+     * number of ledgers an index file of it has room for (caches from before
+     * the properties file), or else <code>defaultSize</code>
+     */
+    public static int storedSegmentSize(Path cachePath, int defaultSize) throws IOException {
+        Path propertiesFile = cachePath.resolve(PROPERTIES_FILE);
+        if (Files.exists(propertiesFile)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(propertiesFile)) {
+                properties.load(in);
+            }
+            try {
+                return Integer.parseInt(properties.getProperty(SEGMENT_SIZE, ""));
+            } catch (NumberFormatException ex) {
+                throw new IOException("No valid " + SEGMENT_SIZE + " in " + propertiesFile);
+            }
+        }
+        if (Files.isDirectory(cachePath)) {
+            try (DirectoryStream<Path> indexFiles = Files.newDirectoryStream(cachePath, "*.idx")) {
+                for (Path indexFile : indexFiles) {
+                    int size = (int) (Files.size(indexFile) / Long.BYTES);
+                    if (size > 0) {
+                        return size;
+                    }
+                }
+            }
+        }
+        return defaultSize;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    @Override
+    public synchronized boolean isCached(long ledgerIndex) throws IOException {
+        Segment segment = getSegment(ledgerIndex, false);
+        return segment != null && segment.offsetOf(slotOf(ledgerIndex)) >= 0;
+    }
+
+    @Override
+    public String getCachedLedger(long ledgerIndex) throws IOException {
+        byte[] ledger = getCachedLedgerBytes(ledgerIndex);
+        return ledger != null ? new String(ledger, StandardCharsets.UTF_8) : null;
+    }
+
+    @Override
+    public byte[] getCachedLedgerBytes(long ledgerIndex) throws IOException {
+        byte[] record;
+        synchronized (this) {
+            Segment segment = getSegment(ledgerIndex, false);
+            if (segment == null) {
+                return null;
+            }
+            record = segment.read(slotOf(ledgerIndex));
+        }
+        if (record == null) {
+            return null;
+        }
+        // Inflate outside of the lock
+        return decode(record);
+    }
+
+    @Override
+    public void cacheLedger(String ledger, long ledgerIndex) throws IOException {
+        cacheLedger(ledger.getBytes(StandardCharsets.UTF_8), ledgerIndex);
+    }
+
+    @Override
+    public void cacheLedger(byte[] ledger, long ledgerIndex) throws IOException {
+        if (isCached(ledgerIndex)) {
+            return;
+        }
+        byte[] record = encode(ledger);
+        synchronized (this) {
+            Segment segment = getSegment(ledgerIndex, true);
+            int slot = slotOf(ledgerIndex);
+            // Another thread might have beaten us to it
+            if (segment.offsetOf(slot) < 0) {
+                segment.append(slot, record);
+            }
+        }
+    }
+
+    /**
+     * Appends the ledger and points the index at it. The record it replaces
+     * stays behind in the data file, orphaned.
+     */
+    @Override
+    public void replaceLedger(byte[] ledger, long ledgerIndex) throws IOException {
+        byte[] record = encode(ledger);
+        synchronized (this) {
+            getSegment(ledgerIndex, true).append(slotOf(ledgerIndex), record);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            Iterator<Segment> it = openSegments.values().iterator();
+            while (it.hasNext()) {
+                it.next().close();
+                it.remove();
+            }
+        } finally {
+            lockChannel.close();
+        }
+    }
+
+    private long segmentStart(long ledgerIndex) {
+        return ledgerIndex - (ledgerIndex % segmentSize);
+    }
+
+    private int slotOf(long ledgerIndex) {
+        return (int) (ledgerIndex % segmentSize);
+    }
+
+    private Segment getSegment(long ledgerIndex, boolean create) throws IOException {
+        if (ledgerIndex < 0) {
+            throw new IllegalArgumentException("Invalid ledger index: " + ledgerIndex);
+        }
+        long start = segmentStart(ledgerIndex);
+        Segment segment = openSegments.get(start);
+        if (segment == null) {
+            Path dataFile = cachePath.resolve(start + ".seg");
+            Path indexFile = cachePath.resolve(start + ".idx");
+            if (!create && !Files.exists(indexFile)) {
+                return null;
+            }
+            segment = new Segment(dataFile, indexFile, segmentSize);
+            openSegments.put(start, segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Prefixes the (possibly deflated) ledger with its flags byte.
+     */
+    private byte[] encode(byte[] ledger) {
+        if (compress) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(ledger);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(ledger.length / 4 + 16);
+                out.write(FLAG_DEFLATED);
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    out.write(buffer, 0, n);
+                }
+                if (out.size() < ledger.length + 1) {
+                    return out.toByteArray();
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        byte[] record = new byte[ledger.length + 1];
+        System.arraycopy(ledger, 0, record, 1, ledger.length);
+        return record;
+    }
+
+    private byte[] decode(byte[] record) throws IOException {
+        if ((record[0] & FLAG_DEFLATED) == 0) {
+            byte[] ledger = new byte[record.length - 1];
+            System.arraycopy(record, 1, ledger, 0, ledger.length);
+            return ledger;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(record, 1, record.length - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(record.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated record in ledger cache");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt record in ledger cache", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * One data file plus its offset index. Not thread safe, the cacher
+     * synchronizes access.
+     */
+    private static final class Segment {
+
+        private final FileChannel data;
+        private final FileChannel indexChannel;
+        private final MappedByteBuffer indexMap;
+        private final LongBuffer index;
+        private final Map<Long, MappedByteBuffer> windows = new HashMap<>();
+
+        Segment(Path dataFile, Path indexFile, int segmentSize) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(indexFile.toFile(), "rw")) {
+                if (raf.length() < (long) segmentSize * Long.BYTES) {
+                    raf.setLength((long) segmentSize * Long.BYTES);
+                }
+            }
+            this.indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.indexMap = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentSize * Long.BYTES);
+            this.index = indexMap.asLongBuffer();
+            this.data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        long offsetOf(int slot) {
+            return index.get(slot) - 1;
+        }
+
+        void append(int slot, byte[] record) throws IOException {
+            long offset = data.size();
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE - 1 + record.length);
+            buffer.putInt(record.length - 1);
+            buffer.put(record);
+            buffer.flip();
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += data.write(buffer, position);
+            }
+            index.put(slot, offset + 1);
+        }
+
+        /**
+         * @return the flags byte followed by the stored ledger bytes, or null
+         * if the slot is empty or points outside of the data file
+         */
+        byte[] read(int slot) throws IOException {
+            long offset = offsetOf(slot);
+            if (offset < 0) {
+                return null;
+            }
+            long size = data.size();
+            if (offset + RECORD_HEADER_SIZE > size) {
+                return null;
+            }
+            ByteBuffer header = slice(offset, RECORD_HEADER_SIZE, size);
+            int length = header.getInt();
+            if (length < 0 || offset + RECORD_HEADER_SIZE + length > size) {
+                return null;
+            }
+            ByteBuffer body = slice(offset + 4, length + 1, size);
+            byte[] record = new byte[length + 1];
+            body.get(record);
+            return record;
+        }
+
+        /**
+         * Returns <code>length</code> bytes at <code>offset</code>, from a
+         * mapped window if the range fits in one, otherwise read directly.
+         */
+        private ByteBuffer slice(long offset, int length, long size) throws IOException {
+            long windowStart = offset - (offset % WINDOW_SIZE);
+            if (offset + length <= windowStart + WINDOW_SIZE) {
+                MappedByteBuffer window = windows.get(windowStart);
+                if (window == null || windowStart + window.capacity() < offset + length) {
+                    // Not mapped yet, or the file has grown since
+                    long windowLength = Math.min(WINDOW_SIZE, size - windowStart);
+                    window = data.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+                    windows.put(windowStart, window);
+                }
+                ByteBuffer slice = window.duplicate();
+                slice.position((int) (offset - windowStart));
+                slice.limit((int) (offset - windowStart) + length);
+                return slice.slice();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                int n = data.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of segment file");
+                }
+                position += n;
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        void close() throws IOException {
+            windows.clear();
+            // The records first, so the index never points past what is on disk
+            data.force(false);
+            indexMap.force();
+            try {
+                data.close();
+            } finally {
+                indexChannel.close();
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                close();
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+            }
+        }
+    }
+
+}
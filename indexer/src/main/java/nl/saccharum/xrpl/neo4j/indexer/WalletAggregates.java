@@ -0,0 +1,319 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+import org.neo4j.driver.Transaction;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.Values;
+
+/**
+ * Aggregates of the payments and activations of wallets, kept as properties
+ * of their Wallet nodes so dashboards don't have to aggregate the PAYS and
+ * RECEIVES relationships:
+ * <ul>
+ * <li><code>totalSent_&lt;currency&gt;_&lt;issuer&gt;</code> and
+ * <code>totalReceived_&lt;currency&gt;_&lt;issuer&gt;</code>, the sum of the
+ * amounts delivered per issued currency, since USD from one issuer is not
+ * USD from another, and <code>totalSent_xrp</code> and
+ * <code>totalReceived_xrp</code> in drops</li>
+ * <li><code>paymentsSent</code> and <code>paymentsReceived</code></li>
+ * <li><code>firstActivity</code> and <code>lastActivity</code>, the dates of
+ * the first and last payment, and <code>firstActivityLedger</code> and
+ * <code>lastActivityLedger</code>, their ledgers</li>
+ * <li><code>activatedChildren</code>, the number of wallets activated</li>
+ * </ul>
+ *
+ * The {@link BatchWriter} collects the changes of a batch in one of these, for
+ * the payments and activations its transaction created, so a batch written
+ * twice doesn't count twice, and applies them in that same transaction. The
+ * Wallets are locked first, in order, by raising their
+ * <code>aggregatesVersion</code>, so concurrent writers don't lose each
+ * other's updates. Not thread safe.
+ *
+ * A graph that was bulk imported, or written before there were aggregates,
+ * gets them from {@link #recompute(Driver, String, int)}.
+ *
+ * @author smelis
+ */
+public class WalletAggregates {
+
+    public static final String TOTAL_SENT = "totalSent_";
+    public static final String TOTAL_RECEIVED = "totalReceived_";
+    public static final String PAYMENTS_SENT = "paymentsSent";
+    public static final String PAYMENTS_RECEIVED = "paymentsReceived";
+    public static final String FIRST_ACTIVITY = "firstActivity";
+    public static final String FIRST_ACTIVITY_LEDGER = "firstActivityLedger";
+    public static final String LAST_ACTIVITY = "lastActivity";
+    public static final String LAST_ACTIVITY_LEDGER = "lastActivityLedger";
+    public static final String ACTIVATED_CHILDREN = "activatedChildren";
+
+    private static final String PAGE = "MATCH (wallet:Wallet) WHERE wallet.address > $after\n"
+            + "RETURN wallet.address AS address ORDER BY address LIMIT $limit";
+
+    // The same amount addPayment counts. Payments written before there was a
+    // deliveredDrops only have the delivered XRP as a float, which is exact
+    // enough to tell that the full amount was delivered but not to count drops.
+    private static final String DELIVERED = "WITH address, payment, coalesce(payment.deliveredCurrency, payment.amountCurrency) AS currency,\n"
+            + " CASE WHEN payment.deliveredCurrency IS NULL THEN payment.amountCurrencyIssuer ELSE payment.deliveredCurrencyIssuer END AS issuer\n"
+            + "RETURN address, currency + coalesce('_' + issuer, '') AS key, count(payment) AS payments, sum(CASE\n"
+            + " WHEN payment.deliveredCurrency IS NULL THEN payment.amount\n"
+            + " WHEN payment.deliveredDrops IS NOT NULL THEN payment.deliveredDrops\n"
+            + " WHEN currency <> 'xrp' THEN payment.deliveredAmount\n"
+            + " WHEN payment.amountCurrency = 'xrp' AND abs(payment.deliveredAmount * 1000000 - payment.amount) <= payment.amount * 1e-7 THEN payment.amount\n"
+            + " ELSE toInteger(round(payment.deliveredAmount * 1000000)) END) AS total,\n"
+            + " min(payment.ledgerIndex) AS firstLedger, min(payment.date) AS firstDate,\n"
+            + " max(payment.ledgerIndex) AS lastLedger, max(payment.date) AS lastDate";
+
+    private static final String SENT = "UNWIND $rows AS address\n"
+            + "MATCH (:Wallet { address: address })-[:PAYS]->(payment:Payment)\n"
+            + DELIVERED;
+
+    private static final String RECEIVED = "UNWIND $rows AS address\n"
+            + "MATCH (payment:Payment)-[:RECEIVES]->(:Wallet { address: address })\n"
+            + DELIVERED;
+
+    private static final String ACTIVATED = "UNWIND $rows AS address\n"
+            + "MATCH (:Wallet { address: address })-[:ACTIVATES]->(child:Wallet)\n"
+            + "RETURN address, count(child) AS activated";
+
+    /**
+     * The changes to the aggregates of one wallet.
+     */
+    private static final class Delta {
+
+        long paymentsSent;
+        long paymentsReceived;
+        long activatedChildren;
+        final Map<String, Number> sent = new TreeMap<>();
+        final Map<String, Number> received = new TreeMap<>();
+        long firstLedger = Long.MAX_VALUE;
+        Object firstDate;
+        long lastLedger = -1;
+        Object lastDate;
+
+        void activity(long ledgerIndex, Object date) {
+            if (ledgerIndex < firstLedger) {
+                firstLedger = ledgerIndex;
+                firstDate = date;
+            }
+            if (ledgerIndex > lastLedger) {
+                lastLedger = ledgerIndex;
+                lastDate = date;
+            }
+        }
+    }
+
+    // Sorted, so wallets are always locked in the same order
+    private final Map<String, Delta> deltas = new TreeMap<>();
+
+    /**
+     * Counts a payment, given as the parameters the {@link LedgerTransformer}
+     * made for it, by the amount it delivered if the metadata has it: a
+     * partial payment delivers less than its amount, and a cross currency
+     * payment delivers another currency.
+     */
+    public void addPayment(Map<String, Object> payment) {
+        String currency = key((String) payment.get("amountCurrency"), (String) payment.get("amountCurrencyIssuer"));
+        Number amount = (Number) payment.get("amount");
+        if (payment.get("deliveredCurrency") != null) {
+            String delivered = (String) payment.get("deliveredCurrency");
+            currency = key(delivered, (String) payment.get("deliveredCurrencyIssuer"));
+            amount = (Number) payment.get("xrp".equals(delivered) ? "deliveredDrops" : "deliveredAmount");
+        }
+        long ledgerIndex = ((Number) payment.get("ledgerIndex")).longValue();
+        Object date = payment.get("date");
+
+        Delta sender = delta((String) payment.get("sender"));
+        sender.paymentsSent++;
+        sender.sent.merge(currency, amount, WalletAggregates::add);
+        sender.activity(ledgerIndex, date);
+
+        Delta receiver = delta((String) payment.get("receiver"));
+        receiver.paymentsReceived++;
+        receiver.received.merge(currency, amount, WalletAggregates::add);
+        receiver.activity(ledgerIndex, date);
+    }
+
+    /**
+     * Counts an activation, given as the parameters the
+     * {@link LedgerTransformer} made for it.
+     */
+    public void addActivation(Map<String, Object> activation) {
+        delta((String) activation.get("parent")).activatedChildren++;
+    }
+
+    public boolean isEmpty() {
+        return deltas.isEmpty();
+    }
+
+    /**
+     * Adds the changes to the aggregates of the Wallets, which must all exist.
+     */
+    public void write(Transaction tx) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        List<Map<String, Object>> rows = new ArrayList<>(deltas.size());
+        List<Record> wallets = tx.run(CypherTemplates.LOCK_WALLETS, Values.parameters("rows", new ArrayList<>(deltas.keySet()))).list();
+        for (Record wallet : wallets) {
+            Delta delta = deltas.get(wallet.get("address").asString());
+            Map<String, Object> current = wallet.get("props").asMap();
+            rows.add(aggregateRow(wallet.get("id").asLong(), update(delta, current)));
+        }
+        tx.run(CypherTemplates.WALLET_AGGREGATES, Values.parameters("rows", rows)).consume();
+    }
+
+    private Delta delta(String address) {
+        return deltas.computeIfAbsent(address, (key) -> new Delta());
+    }
+
+    /**
+     * @return the properties to SET += on a Wallet with the current
+     * properties to add the delta to it
+     */
+    private static Map<String, Object> update(Delta delta, Map<String, Object> current) {
+        Map<String, Object> props = new HashMap<>();
+        if (delta.paymentsSent > 0) {
+            props.put(PAYMENTS_SENT, count(current, PAYMENTS_SENT) + delta.paymentsSent);
+        }
+        if (delta.paymentsReceived > 0) {
+            props.put(PAYMENTS_RECEIVED, count(current, PAYMENTS_RECEIVED) + delta.paymentsReceived);
+        }
+        if (delta.activatedChildren > 0) {
+            props.put(ACTIVATED_CHILDREN, count(current, ACTIVATED_CHILDREN) + delta.activatedChildren);
+        }
+        delta.sent.forEach((currency, amount) -> props.put(TOTAL_SENT + currency, add((Number) current.get(TOTAL_SENT + currency), amount)));
+        delta.received.forEach((currency, amount) -> props.put(TOTAL_RECEIVED + currency, add((Number) current.get(TOTAL_RECEIVED + currency), amount)));
+        if (delta.lastLedger >= 0) {
+            Number first = (Number) current.get(FIRST_ACTIVITY_LEDGER);
+            if (first == null || delta.firstLedger < first.longValue()) {
+                props.put(FIRST_ACTIVITY_LEDGER, delta.firstLedger);
+                props.put(FIRST_ACTIVITY, delta.firstDate);
+            }
+            Number last = (Number) current.get(LAST_ACTIVITY_LEDGER);
+            if (last == null || delta.lastLedger > last.longValue()) {
+                props.put(LAST_ACTIVITY_LEDGER, delta.lastLedger);
+                props.put(LAST_ACTIVITY, delta.lastDate);
+            }
+        }
+        return props;
+    }
+
+    /**
+     * @return what the totals of a currency are called after their prefix:
+     * the currency and its issuer, or just <code>xrp</code>
+     */
+    static String key(String currency, String issuer) {
+        return issuer != null ? currency + "_" + issuer : currency;
+    }
+
+    private static long count(Map<String, Object> props, String key) {
+        Number count = (Number) props.get(key);
+        return count != null ? count.longValue() : 0;
+    }
+
+    /**
+     * Adds whole numbers (XRP in drops) exactly, anything else as doubles.
+     */
+    private static Number add(Number a, Number b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if ((a instanceof Long || a instanceof Integer) && (b instanceof Long || b instanceof Integer)) {
+            return a.longValue() + b.longValue();
+        }
+        return a.doubleValue() + b.doubleValue();
+    }
+
+    private static boolean isAggregate(String key) {
+        return key.startsWith(TOTAL_SENT) || key.startsWith(TOTAL_RECEIVED)
+                || PAYMENTS_SENT.equals(key) || PAYMENTS_RECEIVED.equals(key)
+                || FIRST_ACTIVITY.equals(key) || FIRST_ACTIVITY_LEDGER.equals(key)
+                || LAST_ACTIVITY.equals(key) || LAST_ACTIVITY_LEDGER.equals(key)
+                || ACTIVATED_CHILDREN.equals(key);
+    }
+
+    private static Map<String, Object> aggregateRow(long id, Map<String, Object> props) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", id);
+        row.put("props", props);
+        return row;
+    }
+
+    /**
+     * Rebuilds the aggregates of all wallets from their payments and
+     * activations, <code>pageSize</code> wallets per transaction. Payments
+     * written while this runs may be counted twice or not at all, so run it
+     * while the indexer is stopped.
+     *
+     * @return the number of wallets
+     */
+    public static long recompute(Driver neo4jDriver, String database, int pageSize) {
+        long wallets = 0;
+        String after = "";
+        try (Session session = neo4jDriver.session(SessionConfig.forDatabase(database))) {
+            while (true) {
+                String from = after;
+                List<String> page = session.readTransaction((tx) -> tx.run(PAGE, Values.parameters("after", from, "limit", pageSize))
+                        .list((record) -> record.get("address").asString()));
+                if (page.isEmpty()) {
+                    break;
+                }
+                session.writeTransaction((tx) -> {
+                    recompute(tx, page);
+                    return null;
+                });
+                wallets += page.size();
+                after = page.get(page.size() - 1);
+                System.out.println("Recomputed the aggregates of " + wallets + " wallets, up to " + after);
+            }
+        }
+        return wallets;
+    }
+
+    private static void recompute(Transaction tx, List<String> addresses) {
+        Map<String, Delta> totals = new HashMap<>();
+        addresses.forEach((address) -> totals.put(address, new Delta()));
+        Value params = Values.parameters("rows", addresses);
+        for (Record record : tx.run(SENT, params).list()) {
+            Delta delta = totals.get(record.get("address").asString());
+            delta.paymentsSent += record.get("payments").asLong();
+            delta.sent.put(record.get("key").asString(), (Number) record.get("total").asObject());
+            delta.activity(record.get("firstLedger").asLong(), record.get("firstDate").asObject());
+            delta.activity(record.get("lastLedger").asLong(), record.get("lastDate").asObject());
+        }
+        for (Record record : tx.run(RECEIVED, params).list()) {
+            Delta delta = totals.get(record.get("address").asString());
+            delta.paymentsReceived += record.get("payments").asLong();
+            delta.received.put(record.get("key").asString(), (Number) record.get("total").asObject());
+            delta.activity(record.get("firstLedger").asLong(), record.get("firstDate").asObject());
+            delta.activity(record.get("lastLedger").asLong(), record.get("lastDate").asObject());
+        }
+        for (Record record : tx.run(ACTIVATED, params).list()) {
+            totals.get(record.get("address").asString()).activatedChildren = record.get("activated").asLong();
+        }
+        List<Map<String, Object>> rows = new ArrayList<>(addresses.size());
+        for (Record wallet : tx.run(CypherTemplates.LOCK_WALLETS, params).list()) {
+            Map<String, Object> props = update(totals.get(wallet.get("address").asString()), new HashMap<>());
+            // Aggregates that no longer apply are removed by SETting them to null
+            for (String key : wallet.get("props").asMap().keySet()) {
+                if (isAggregate(key) && !props.containsKey(key)) {
+                    props.put(key, null);
+                }
+            }
+            rows.add(aggregateRow(wallet.get("id").asLong(), props));
+        }
+        tx.run(CypherTemplates.WALLET_AGGREGATES, Values.parameters("rows", rows)).consume();
+    }
+
+}
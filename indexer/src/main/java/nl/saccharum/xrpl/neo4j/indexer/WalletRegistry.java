@@ -0,0 +1,240 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Result;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+
+/**
+ * Remembers the internal node id of the Wallets we've seen, so the
+ * {@link BatchWriter} doesn't have to MERGE them again and can write their
+ * relationships by id instead of looking them up by address.
+ *
+ * Addresses are kept as their decoded 20 byte account IDs in an
+ * {@link AccountIdMap}, so a wallet takes 43 to 85 bytes of heap and the
+ * whole registry never more than {@link #bytesFor(int)}: about 128MB for the
+ * default of 2 million wallets. What happens when it is full depends on the
+ * eviction policy:
+ * <ul>
+ * <li>NONE: new wallets aren't registered anymore, they're MERGEd and looked up
+ * by address like before.</li>
+ * <li>GENERATIONAL: wallets are registered in a young generation, and looked up
+ * in the young and the old one. A wallet found in the old generation moves to
+ * the young one. When the young generation is full it becomes the old one,
+ * forgetting the wallets that weren't seen since the last time. Each generation
+ * gets half of the space.</li>
+ * </ul>
+ * Node ids can be reused by Neo4j after a node is deleted, so the registry
+ * assumes nobody deletes Wallets while the indexer runs. Thread safe.
+ *
+ * @author smelis
+ */
+public class WalletRegistry {
+
+    public enum Eviction {
+        NONE, GENERATIONAL
+    }
+
+    private static final String ALPHABET = "rpshnaf39wBUDNEGHJKLM4PQRST7VWXYZ2bcdeCg65jkm8oFqi1tuvAxyz";
+    private static final int[] DIGITS = new int[128];
+    // Version byte, account ID and 4 byte checksum
+    private static final int DECODED_LENGTH = 1 + AccountIdMap.ACCOUNT_ID_LENGTH + 4;
+
+    static {
+        Arrays.fill(DIGITS, -1);
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            DIGITS[ALPHABET.charAt(i)] = i;
+        }
+    }
+
+    private final Eviction eviction;
+    private AccountIdMap young;
+    private AccountIdMap old;
+    // Wallets that don't have an XRPL address, like "genesis"
+    private final Map<String, Long> others = new HashMap<>();
+    private long hits = 0;
+    private long misses = 0;
+    private long evicted = 0;
+
+    public WalletRegistry(int maxWallets, Eviction eviction) {
+        this.eviction = eviction;
+        if (eviction == Eviction.GENERATIONAL) {
+            young = new AccountIdMap(Math.max(1, maxWallets / 2));
+            old = new AccountIdMap(Math.max(1, maxWallets / 2));
+        } else {
+            young = new AccountIdMap(maxWallets);
+        }
+    }
+
+    /**
+     * @return the heap a registry for <code>maxWallets</code> wallets takes at
+     * most, whatever the eviction policy
+     */
+    public static long bytesFor(int maxWallets) {
+        return Math.max(AccountIdMap.bytesFor(maxWallets), 2 * AccountIdMap.bytesFor(Math.max(1, maxWallets / 2)));
+    }
+
+    /**
+     * @return the node id of the wallet, or -1 if it isn't known
+     */
+    public synchronized long get(String address) {
+        byte[] accountId = decode(address);
+        long id;
+        if (accountId == null) {
+            id = others.getOrDefault(address, -1L);
+        } else {
+            id = young.get(accountId);
+            if (id < 0 && old != null) {
+                id = old.get(accountId);
+                if (id >= 0) {
+                    add(accountId, id);
+                }
+            }
+        }
+        if (id < 0) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return id;
+    }
+
+    public synchronized void put(String address, long nodeId) {
+        byte[] accountId = decode(address);
+        if (accountId == null) {
+            others.put(address, nodeId);
+        } else {
+            add(accountId, nodeId);
+        }
+    }
+
+    public synchronized void putAll(Map<String, Long> nodeIds) {
+        nodeIds.forEach(this::put);
+    }
+
+    /**
+     * @return whether new wallets will still be registered without evicting
+     * others
+     */
+    public synchronized boolean isFull() {
+        return young.isFull();
+    }
+
+    public synchronized int size() {
+        return young.size() + (old != null ? old.size() : 0) + others.size();
+    }
+
+    private void add(byte[] accountId, long nodeId) {
+        if (!young.put(accountId, nodeId) && eviction == Eviction.GENERATIONAL) {
+            evicted += old.size();
+            AccountIdMap recycled = old;
+            recycled.clear();
+            old = young;
+            young = recycled;
+            young.put(accountId, nodeId);
+        }
+    }
+
+    /**
+     * Registers the Wallets already in the graph, until the registry is full.
+     *
+     * @return the number of wallets registered
+     */
+    public int warm(Driver neo4jDriver, String database) {
+        int count = 0;
+        try (Session session = neo4jDriver.session(SessionConfig.forDatabase(database))) {
+            Result result = session.run("MATCH (w:Wallet) RETURN w.address AS address, id(w) AS id");
+            while (result.hasNext() && !isFull()) {
+                Record record = result.next();
+                put(record.get("address").asString(), record.get("id").asLong());
+                count++;
+            }
+            result.consume();
+        }
+        return count;
+    }
+
+    /**
+     * Decodes an address to its account ID. Doesn't verify the checksum, the
+     * addresses come from validated ledgers.
+     *
+     * @return the account ID, or null if this isn't a classic XRPL address
+     */
+    static byte[] decode(String address) {
+        if (address == null || address.length() < 25 || address.length() > 35 || address.charAt(0) != 'r') {
+            return null;
+        }
+        byte[] decoded = new byte[DECODED_LENGTH];
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            int carry = c < 128 ? DIGITS[c] : -1;
+            if (carry < 0) {
+                return null;
+            }
+            // decoded = decoded * 58 + digit, big endian
+            for (int j = DECODED_LENGTH - 1; j >= 0; j--) {
+                carry += 58 * (decoded[j] & 0xff);
+                decoded[j] = (byte) carry;
+                carry >>>= 8;
+            }
+            if (carry != 0) {
+                return null;
+            }
+        }
+        if (decoded[0] != 0) {
+            return null;
+        }
+        return Arrays.copyOfRange(decoded, 1, 1 + AccountIdMap.ACCOUNT_ID_LENGTH);
+    }
+
+    /**
+     * Encodes an account ID as its address, the reverse of
+     * {@link #decode(String)}.
+     */
+    static String encode(byte[] accountId) {
+        byte[] number = new byte[DECODED_LENGTH];
+        System.arraycopy(accountId, 0, number, 1, AccountIdMap.ACCOUNT_ID_LENGTH);
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            byte[] checksum = sha256.digest(sha256.digest(Arrays.copyOf(number, 1 + AccountIdMap.ACCOUNT_ID_LENGTH)));
+            System.arraycopy(checksum, 0, number, 1 + AccountIdMap.ACCOUNT_ID_LENGTH, 4);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        int zeros = 0;
+        while (zeros < number.length && number[zeros] == 0) {
+            zeros++;
+        }
+        char[] digits = new char[2 * DECODED_LENGTH];
+        int position = digits.length;
+        // number = number / 58, least significant digit first
+        for (int start = zeros; start < number.length; ) {
+            int remainder = 0;
+            for (int j = start; j < number.length; j++) {
+                int value = (remainder << 8) | (number[j] & 0xff);
+                number[j] = (byte) (value / 58);
+                remainder = value % 58;
+            }
+            digits[--position] = ALPHABET.charAt(remainder);
+            while (start < number.length && number[start] == 0) {
+                start++;
+            }
+        }
+        while (zeros-- > 0) {
+            digits[--position] = ALPHABET.charAt(0);
+        }
+        return new String(digits, position, digits.length - position);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "WalletRegistry{" + "size=" + size() + ", hits=" + hits + ", misses=" + misses + ", evicted=" + evicted + '}';
+    }
+
+}
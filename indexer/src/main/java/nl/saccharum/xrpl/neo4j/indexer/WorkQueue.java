@@ -0,0 +1,75 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The partitions of a ledger range, handed out to the workers of one or more
+ * indexer processes. A claimed partition is leased to its worker; when the
+ * lease isn't renewed in time, e.g. because the process died, the partition
+ * is handed out again. Partitions are from inclusive and to exclusive.
+ *
+ * @author smelis
+ */
+public interface WorkQueue extends AutoCloseable {
+
+    /**
+     * Adds the partitions of <code>from</code> (inclusive) up to
+     * <code>to</code> (exclusive) that aren't in the queue yet. Processes
+     * sharing the queue should use the same <code>from</code> and partition
+     * size, so their partitions line up. A partition cut short by the end of
+     * an earlier, smaller range is followed by one from where it ends;
+     * partitions that are there are never changed, so neither is a lease.
+     */
+    void init(long from, long to, int partitionSize) throws IOException;
+
+    /**
+     * @param ends the <code>to</code> of every partition in the queue, by its
+     * <code>from</code>
+     * @return the partitions {@link #init} should add, as from and to
+     */
+    static List<long[]> missingPartitions(Map<Long, Long> ends, long from, long to, int partitionSize) {
+        List<long[]> missing = new ArrayList<>();
+        for (long start = from; start < to; start += partitionSize) {
+            long end = Math.min(start + partitionSize, to);
+            // Follow the partitions that cover this one so far
+            long covered = start;
+            while (covered < end && ends.containsKey(covered)) {
+                covered = ends.get(covered);
+            }
+            if (covered < end) {
+                missing.add(new long[]{covered, end});
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return a partition leased to the worker, or null if all of them are
+     * done or leased to others
+     */
+    long[] claim(String worker) throws IOException;
+
+    /**
+     * Extends the lease of a partition the worker claimed.
+     *
+     * @return false if the lease was lost to another worker
+     */
+    boolean renew(long[] partition, String worker) throws IOException;
+
+    /**
+     * Marks a partition as done; it won't be handed out again.
+     */
+    void complete(long[] partition, String worker) throws IOException;
+
+    /**
+     * @return the number of partitions that aren't done
+     */
+    int remaining() throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+}
@@ -0,0 +1,80 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author smelis
+ */
+public class AccountIdMapTest {
+
+    private final Random random = new Random(20);
+
+    @Test
+    public void putsAndGets() {
+        AccountIdMap map = new AccountIdMap(10_000);
+        byte[][] accountIds = accountIds(10_000);
+        for (int i = 0; i < accountIds.length; i++) {
+            assertTrue(map.put(accountIds[i], i));
+        }
+        assertEquals(10_000, map.size());
+        for (int i = 0; i < accountIds.length; i++) {
+            assertEquals(i, map.get(accountIds[i]));
+        }
+        assertEquals(-1, map.get(accountIds(1)[0]));
+        // Replacing a value doesn't add an entry
+        assertTrue(map.put(accountIds[5], 42));
+        assertEquals(42, map.get(accountIds[5]));
+        assertEquals(10_000, map.size());
+    }
+
+    @Test
+    public void tellsAccountIdsThatShareTheirFirstBytesApart() {
+        AccountIdMap map = new AccountIdMap(100);
+        byte[] a = new byte[AccountIdMap.ACCOUNT_ID_LENGTH];
+        byte[] b = a.clone();
+        b[AccountIdMap.ACCOUNT_ID_LENGTH - 1] = 1;
+        // All zeros is an account ID too
+        assertTrue(map.put(a, 1));
+        assertTrue(map.put(b, 2));
+        assertEquals(1, map.get(a));
+        assertEquals(2, map.get(b));
+    }
+
+    @Test
+    public void refusesNewEntriesWhenFull() {
+        AccountIdMap map = new AccountIdMap(100);
+        byte[][] accountIds = accountIds(101);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(map.put(accountIds[i], i));
+        }
+        assertTrue(map.isFull());
+        assertFalse(map.put(accountIds[100], 100));
+        assertEquals(-1, map.get(accountIds[100]));
+        assertTrue(map.put(accountIds[0], 7));
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(accountIds[0]));
+        assertTrue(map.put(accountIds[100], 100));
+        assertEquals(100, map.get(accountIds[100]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesNegativeValues() {
+        new AccountIdMap(10).put(accountIds(1)[0], -1);
+    }
+
+    private byte[][] accountIds(int count) {
+        byte[][] accountIds = new byte[count][AccountIdMap.ACCOUNT_ID_LENGTH];
+        for (byte[] accountId : accountIds) {
+            random.nextBytes(accountId);
+        }
+        return accountIds;
+    }
+
+}
@@ -0,0 +1,110 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import okhttp3.HttpUrl;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Prefetches into a cache with all kinds of damage, from a
+ * {@link StubRippledServer} serving the ledgers as they should be.
+ *
+ * @author smelis
+ */
+public class CachePrefetcherTest {
+
+    private static final long FROM = 5_000;
+    private static final long TO = 6_500;
+
+    private Path rippledPath;
+    private Path cachePath;
+    private SegmentedCacher rippledCache;
+    private SegmentedCacher cache;
+    private StubRippledServer rippled;
+
+    @Before
+    public void open() throws IOException {
+        rippledPath = Files.createTempDirectory("cache-prefetcher-test");
+        cachePath = Files.createTempDirectory("cache-prefetcher-test");
+        rippledCache = new SegmentedCacher(rippledPath);
+        cache = new SegmentedCacher(cachePath);
+        rippled = new StubRippledServer(rippledCache, 0);
+        rippled.start();
+    }
+
+    @After
+    public void close() throws IOException {
+        rippled.close();
+        rippledCache.close();
+        cache.close();
+        FileUtils.deleteDirectory(rippledPath.toFile());
+        FileUtils.deleteDirectory(cachePath.toFile());
+    }
+
+    @Test(timeout = 60_000)
+    public void repairsWhatIsMissingCorruptOrForked() throws Exception {
+        for (long ledgerIndex = FROM; ledgerIndex < TO; ledgerIndex++) {
+            rippledCache.cacheLedger(ledger(ledgerIndex, "H" + ledgerIndex, "H" + (ledgerIndex - 1)), ledgerIndex);
+            byte[] cached = ledger(ledgerIndex, "H" + ledgerIndex, "H" + (ledgerIndex - 1));
+            if (ledgerIndex % 7 == 0) {
+                continue;
+            } else if (ledgerIndex % 11 == 0) {
+                cached = Arrays.copyOf(cached, cached.length / 2);
+            } else if (ledgerIndex == 5_100) {
+                cached = ledger(5_101, "H5101", "H5100");
+            } else if (ledgerIndex == 5_200) {
+                cached = ledger(5_200, "H5200", null);
+            } else if (ledgerIndex == 5_300 || ledgerIndex == 5_999) {
+                // A fork, inside a chunk and at the end of one
+                cached = ledger(ledgerIndex, "X" + ledgerIndex, "H" + (ledgerIndex - 1));
+            } else if (ledgerIndex == 6_200) {
+                cached = ledger(ledgerIndex, "H6200", "X6199");
+            }
+            cache.cacheLedger(cached, ledgerIndex);
+        }
+        RippledClient client = client();
+
+        assertEquals(0, new CachePrefetcher(cache, client, 4).prefetch(FROM, TO));
+        for (long ledgerIndex = FROM; ledgerIndex < TO; ledgerIndex++) {
+            assertArrayEquals(rippledCache.getCachedLedgerBytes(ledgerIndex), cache.getCachedLedgerBytes(ledgerIndex));
+        }
+        assertEquals(0, new CachePrefetcher(cache, client, 4).prefetch(FROM, TO));
+    }
+
+    @Test(timeout = 10_000)
+    public void reportsWhatRippledDoesNotHave() throws Exception {
+        for (long ledgerIndex = FROM; ledgerIndex < FROM + 10; ledgerIndex++) {
+            if (ledgerIndex != FROM + 5) {
+                rippledCache.cacheLedger(ledger(ledgerIndex, "H" + ledgerIndex, "H" + (ledgerIndex - 1)), ledgerIndex);
+            }
+        }
+        RippledClient client = client();
+
+        assertEquals(1, new CachePrefetcher(cache, client, 1).prefetch(FROM, FROM + 10));
+    }
+
+    /**
+     * @return a client that gives up after a few quick retries
+     */
+    private RippledClient client() {
+        return new RippledClient(Collections.singletonList(HttpUrl.get("http://localhost:" + rippled.getPort() + "/")), 1_000, 5_000, 500, 3, 1, 10);
+    }
+
+    private static byte[] ledger(long ledgerIndex, String hash, String parentHash) {
+        return ("{\"ledger\":{\"ledger_hash\":\"" + hash + "\",\"ledger_index\":\"" + ledgerIndex + "\""
+                + (parentHash != null ? ",\"parent_hash\":\"" + parentHash + "\"" : "")
+                + ",\"close_time_human\":\"2013-Jan-01 00:00:10.000000000 UTC\",\"total_coins\":\"100\",\"transactions\":[]},"
+                + "\"ledger_index\":" + ledgerIndex + ",\"validated\":true}").getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,77 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author smelis
+ */
+public class FileWorkQueueTest {
+
+    private Path file;
+    private FileWorkQueue queue;
+
+    @Before
+    public void open() throws IOException {
+        file = Files.createTempFile("work-queue-test", ".txt");
+        queue = new FileWorkQueue(file, 60_000);
+    }
+
+    @After
+    public void close() throws IOException {
+        queue.close();
+        Files.delete(file);
+    }
+
+    @Test
+    public void handsOutEveryPartitionOnce() throws IOException {
+        queue.init(100, 125, 10);
+        assertArrayEquals(new long[]{100, 110}, queue.claim("a"));
+        assertArrayEquals(new long[]{110, 120}, queue.claim("b"));
+        assertArrayEquals(new long[]{120, 125}, queue.claim("a"));
+        assertNull(queue.claim("b"));
+        assertEquals(3, queue.remaining());
+        queue.complete(new long[]{110, 120}, "b");
+        assertEquals(2, queue.remaining());
+    }
+
+    @Test
+    public void growingTheRangeContinuesAfterThePartialPartition() throws IOException {
+        queue.init(100, 125, 10);
+        for (long[] partition = queue.claim("a"); partition != null; partition = queue.claim("a")) {
+            queue.complete(partition, "a");
+        }
+        assertEquals(0, queue.remaining());
+
+        queue.init(100, 147, 10);
+        assertArrayEquals(new long[]{125, 130}, queue.claim("a"));
+        assertArrayEquals(new long[]{130, 140}, queue.claim("a"));
+        assertArrayEquals(new long[]{140, 147}, queue.claim("a"));
+        assertNull(queue.claim("a"));
+
+        // Again, and with a range that doesn't reach as far, adds nothing
+        queue.init(100, 147, 10);
+        queue.init(100, 133, 10);
+        assertEquals(3, queue.remaining());
+    }
+
+    @Test
+    public void expiredLeasesAreHandedOutAgain() throws Exception {
+        try (FileWorkQueue shortLeases = new FileWorkQueue(file, 100)) {
+            shortLeases.init(0, 10, 10);
+            assertArrayEquals(new long[]{0, 10}, shortLeases.claim("a"));
+            assertNull(shortLeases.claim("b"));
+            Thread.sleep(200);
+            assertArrayEquals(new long[]{0, 10}, shortLeases.claim("b"));
+        }
+    }
+
+}
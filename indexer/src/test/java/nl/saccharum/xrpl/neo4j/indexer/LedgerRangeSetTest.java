@@ -0,0 +1,71 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author smelis
+ */
+public class LedgerRangeSetTest {
+
+    @Test
+    public void mergesRangesThatOverlapOrTouch() {
+        LedgerRangeSet set = new LedgerRangeSet();
+        set.add(10, 20);
+        set.add(30, 40);
+        assertEquals(2, set.rangeCount());
+        set.add(20);
+        set.add(25, 30);
+        assertArrayEquals(new long[]{10, 21, 25, 40}, set.toArray());
+        set.add(15, 35);
+        assertArrayEquals(new long[]{10, 40}, set.toArray());
+        set.add(12, 18);
+        set.add(50, 50);
+        assertArrayEquals(new long[]{10, 40}, set.toArray());
+        set.add(5, 60);
+        assertArrayEquals(new long[]{5, 60}, set.toArray());
+        assertEquals(55, set.size());
+        assertEquals(59, set.last());
+    }
+
+    @Test
+    public void contains() {
+        LedgerRangeSet set = LedgerRangeSet.fromArray(new long[]{10, 20, 30, 40});
+        assertTrue(set.contains(10));
+        assertTrue(set.contains(19));
+        assertFalse(set.contains(20));
+        assertFalse(set.contains(9));
+        assertTrue(set.containsAll(LedgerRangeSet.fromArray(new long[]{12, 15, 30, 40})));
+        assertFalse(set.containsAll(LedgerRangeSet.fromArray(new long[]{12, 25})));
+        assertTrue(set.containsAll(new LedgerRangeSet()));
+        assertEquals(-1, new LedgerRangeSet().last());
+    }
+
+    @Test
+    public void findsTheGaps() {
+        LedgerRangeSet set = LedgerRangeSet.fromArray(new long[]{10, 20, 30, 40});
+        assertGaps(set.gaps(0, 50), 0, 10, 20, 30, 40, 50);
+        assertGaps(set.gaps(15, 35), 20, 30);
+        assertGaps(set.gaps(10, 40), 20, 30);
+        assertGaps(set.gaps(12, 18));
+        assertGaps(set.gaps(20, 30), 20, 30);
+        assertGaps(set.gaps(22, 25), 22, 25);
+        assertGaps(set.gaps(35, 45), 40, 45);
+        assertGaps(new LedgerRangeSet().gaps(1, 5), 1, 5);
+    }
+
+    private static void assertGaps(List<long[]> gaps, long... expected) {
+        long[] actual = new long[gaps.size() * 2];
+        for (int i = 0; i < gaps.size(); i++) {
+            actual[2 * i] = gaps.get(i)[0];
+            actual[2 * i + 1] = gaps.get(i)[1];
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+}
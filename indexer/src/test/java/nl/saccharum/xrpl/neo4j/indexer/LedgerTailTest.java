@@ -0,0 +1,134 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link LedgerTail} against a {@link StubLedgerStream} that keeps
+ * dropping the connection, and checks that what the subscription missed is
+ * backfilled.
+ *
+ * @author smelis
+ */
+public class LedgerTailTest {
+
+    private static final long FIRST_LEDGER = 1000;
+    private static final long LAST_LEDGER = 1039;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Path cachePath;
+    private SegmentedCacher cache;
+
+    /**
+     * Remembers the ledgers instead of writing them.
+     */
+    private static class RecordingWriter extends BatchWriter {
+
+        final List<Long> written = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean flushedInterrupted = false;
+
+        RecordingWriter() {
+            super(null, "neo4j", new WalletRegistry(10, WalletRegistry.Eviction.NONE), new IndexerMetrics(), 1, 1, 0);
+        }
+
+        @Override
+        public void add(LedgerRows rows) {
+            written.add(rows.getLedgerIndex());
+        }
+
+        @Override
+        public void flush() {
+            flushedInterrupted |= Thread.currentThread().isInterrupted();
+        }
+    }
+
+    @Before
+    public void cacheLedgers() throws IOException {
+        cachePath = Files.createTempDirectory("ledger-tail-test");
+        cache = new SegmentedCacher(cachePath);
+        for (long ledgerIndex = FIRST_LEDGER; ledgerIndex <= LAST_LEDGER; ledgerIndex++) {
+            cache.cacheLedger("{\"ledger\":{\"ledger_index\":\"" + ledgerIndex + "\",\"ledger_hash\":\"" + ledgerIndex
+                    + "\",\"close_time\":" + ledgerIndex + ",\"transactions\":[]}}", ledgerIndex);
+        }
+    }
+
+    @After
+    public void deleteCache() throws IOException {
+        cache.close();
+        FileUtils.deleteDirectory(cachePath.toFile());
+    }
+
+    @Test(timeout = 60_000)
+    public void backfillsWhatTheSubscriptionMissed() throws Exception {
+        RecordingWriter liveWriter = new RecordingWriter();
+        RecordingWriter backfillWriter = new RecordingWriter();
+        LedgerTail tail = new LedgerTail(this::fetch,
+                (ledger) -> new LedgerRows(objectMapper.readTree(ledger).path("ledger").path("ledger_index").asLong()),
+                liveWriter, backfillWriter, new IndexerMetrics(), 2, 2, 8, FIRST_LEDGER);
+        Exception[] failure = new Exception[1];
+        Thread tailThread = new Thread(() -> {
+            try {
+                tail.run();
+            } catch (Exception ex) {
+                failure[0] = ex;
+            }
+        }, "tail");
+        try (StubLedgerStream stream = new StubLedgerStream(cache, FIRST_LEDGER, 0)) {
+            // Reconnecting takes a second, so every drop leaves a gap
+            stream.setDisconnectEvery(5);
+            stream.start(100);
+            tailThread.start();
+            try (LedgerSubscription subscription = new LedgerSubscription("ws://localhost:" + stream.getPort() + "/", tail::validated)) {
+                subscription.start();
+                while (written(liveWriter, backfillWriter).size() < LAST_LEDGER - FIRST_LEDGER + 1) {
+                    Thread.sleep(100);
+                }
+            }
+        } finally {
+            tailThread.interrupt();
+            tailThread.join();
+        }
+
+        assertNull(failure[0]);
+        List<Long> written = written(liveWriter, backfillWriter);
+        Collections.sort(written);
+        List<Long> expected = new ArrayList<>();
+        for (long ledgerIndex = FIRST_LEDGER; ledgerIndex <= LAST_LEDGER; ledgerIndex++) {
+            expected.add(ledgerIndex);
+        }
+        // Every ledger once, whichever path wrote it
+        assertEquals(expected, written);
+        assertFalse("nothing was backfilled", backfillWriter.written.isEmpty());
+        assertTrue("nothing was written live", liveWriter.written.size() > 1);
+        assertFalse("flushed on an interrupted thread", liveWriter.flushedInterrupted || backfillWriter.flushedInterrupted);
+    }
+
+    private byte[] fetch(long ledgerIndex) throws IOException {
+        byte[] ledger = cache.getCachedLedgerBytes(ledgerIndex);
+        if (ledger == null) {
+            throw new IOException("Ledger " + ledgerIndex + " not cached");
+        }
+        return ledger;
+    }
+
+    private static List<Long> written(RecordingWriter liveWriter, RecordingWriter backfillWriter) {
+        List<Long> written = new ArrayList<>(liveWriter.written);
+        written.addAll(backfillWriter.written);
+        return written;
+    }
+
+}
@@ -0,0 +1,263 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the {@link LineageIndex} with a plain tree of parents, walked the
+ * slow way.
+ *
+ * @author smelis
+ */
+public class LineageIndexTest {
+
+    private static final int WALLETS = 3_000;
+
+    private final Random random = new Random(16);
+    private final String[] addresses = new String[WALLETS];
+    // The tree the index should have, by wallet
+    private final int[] parents = new int[WALLETS];
+    private final long[] ledgers = new long[WALLETS];
+    private final boolean[] known = new boolean[WALLETS];
+
+    public LineageIndexTest() {
+        addresses[0] = "genesis";
+        for (int wallet = 1; wallet < WALLETS; wallet++) {
+            byte[] accountId = new byte[AccountIdMap.ACCOUNT_ID_LENGTH];
+            random.nextBytes(accountId);
+            addresses[wallet] = WalletRegistry.encode(accountId);
+        }
+        Arrays.fill(parents, -1);
+        Arrays.fill(ledgers, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void labelsTheTree() {
+        LineageIndex lineage = new LineageIndex();
+        for (int wallet = 1; wallet < WALLETS; wallet++) {
+            add(lineage, random.nextInt(wallet), wallet, wallet);
+        }
+        check(lineage, WALLETS);
+        assertTrue(lineage.toString(), lineage.toString().contains("labelled=0"));
+        lineage.relabel();
+        check(lineage, WALLETS);
+        assertTrue(lineage.toString(), lineage.toString().contains("labelled=" + WALLETS));
+    }
+
+    @Test
+    public void answersForLabelledAndUnlabelledWallets() {
+        LineageIndex lineage = new LineageIndex();
+        int labelled = WALLETS - 500;
+        for (int wallet = 1; wallet < labelled; wallet++) {
+            add(lineage, random.nextInt(wallet), wallet, wallet);
+        }
+        lineage.relabel();
+        check(lineage, labelled);
+        // Below labelled and unlabelled parents
+        for (int wallet = labelled; wallet < WALLETS; wallet++) {
+            add(lineage, random.nextInt(wallet), wallet, wallet);
+        }
+        check(lineage, WALLETS);
+        assertTrue(lineage.toString(), lineage.toString().contains("labelled=" + labelled));
+        lineage.relabel();
+        check(lineage, WALLETS);
+    }
+
+    @Test
+    public void followsMovedSubtrees() {
+        LineageIndex lineage = new LineageIndex();
+        List<int[]> activations = new ArrayList<>();
+        for (int wallet = 1; wallet < WALLETS; wallet++) {
+            activations.add(new int[]{random.nextInt(wallet), wallet});
+        }
+        // Out of order, so wallets are parents, roots, before they are activated
+        Collections.shuffle(activations, random);
+        int half = activations.size() / 2;
+        for (int[] activation : activations.subList(0, half)) {
+            add(lineage, activation[0], activation[1], activation[1]);
+        }
+        lineage.relabel();
+        check(lineage, WALLETS);
+        for (int from = half; from < activations.size(); from += 40) {
+            for (int[] activation : activations.subList(from, Math.min(from + 40, activations.size()))) {
+                add(lineage, activation[0], activation[1], activation[1]);
+            }
+            check(lineage, WALLETS);
+            if (from % 400 == half % 400) {
+                lineage.relabel();
+                check(lineage, WALLETS);
+            }
+        }
+    }
+
+    @Test
+    public void followsWhatMovesWhileRelabelling() {
+        LineageIndex lineage = new LineageIndex();
+        List<int[]> activations = new ArrayList<>();
+        for (int wallet = 1; wallet < WALLETS; wallet++) {
+            activations.add(new int[]{random.nextInt(wallet), wallet});
+        }
+        Collections.shuffle(activations, random);
+        int third = activations.size() / 3;
+        for (int[] activation : activations.subList(0, third)) {
+            add(lineage, activation[0], activation[1], activation[1]);
+        }
+        // Added, and moving wallets the new labels will have, after the parents are copied
+        lineage.relabel(() -> {
+            for (int[] activation : activations.subList(third, 2 * third)) {
+                add(lineage, activation[0], activation[1], activation[1]);
+            }
+        });
+        check(lineage, WALLETS);
+        lineage.relabel(() -> {
+            for (int[] activation : activations.subList(2 * third, activations.size())) {
+                add(lineage, activation[0], activation[1], activation[1]);
+            }
+            check(lineage, WALLETS);
+        });
+        check(lineage, WALLETS);
+        lineage.relabel();
+        check(lineage, WALLETS);
+    }
+
+    @Test
+    public void keepsTheFirstActivation() {
+        LineageIndex lineage = new LineageIndex();
+        for (int wallet = 1; wallet < WALLETS; wallet++) {
+            add(lineage, random.nextInt(wallet), wallet, 1_000 + wallet);
+        }
+        lineage.relabel();
+        check(lineage, WALLETS);
+        for (int move = 0; move < 200; move++) {
+            int child = 1 + random.nextInt(WALLETS - 1);
+            int parent = random.nextInt(WALLETS);
+            // A later activation, or one that would make a wallet its own ancestor, is ignored
+            add(lineage, parent, child, random.nextBoolean() ? 2_000 + WALLETS + move : random.nextInt(2_000));
+            if (move % 10 == 0) {
+                check(lineage, WALLETS);
+            }
+            if (move % 50 == 0) {
+                lineage.relabel();
+            }
+        }
+        check(lineage, WALLETS);
+    }
+
+    @Test
+    public void savesAndLoads() throws IOException {
+        LineageIndex lineage = new LineageIndex();
+        List<Map<String, Object>> activations = new ArrayList<>();
+        for (int wallet = 1; wallet < WALLETS; wallet++) {
+            int parent = random.nextInt(wallet);
+            add(null, parent, wallet, wallet);
+            activations.add(activation(addresses[parent], addresses[wallet], wallet));
+        }
+        lineage.addAll(activations, Arrays.asList(5l, 6l, 8l));
+        Path file = Files.createTempFile("lineage-index-test", ".idx");
+        try {
+            lineage.save(file);
+            LineageIndex loaded = new LineageIndex();
+            assertTrue(loaded.load(file));
+            check(loaded, WALLETS);
+            LedgerRangeSet completed = new LedgerRangeSet();
+            completed.add(5, 7);
+            assertFalse(loaded.isUpToDate(completed));
+            completed.add(8);
+            assertTrue(loaded.isUpToDate(completed));
+        } finally {
+            Files.delete(file);
+        }
+        assertFalse(new LineageIndex().load(file));
+    }
+
+    /**
+     * Adds the activation to the index, if any, and by the same rules to the
+     * tree.
+     */
+    private void add(LineageIndex lineage, int parent, int child, long ledgerIndex) {
+        if (lineage != null) {
+            lineage.add(addresses[parent], addresses[child], ledgerIndex);
+        }
+        known[parent] = true;
+        known[child] = true;
+        if (parents[child] >= 0 && ledgers[child] <= ledgerIndex) {
+            return;
+        }
+        for (int walk = parent; walk >= 0; walk = parents[walk]) {
+            if (walk == child) {
+                return;
+            }
+        }
+        parents[child] = parent;
+        ledgers[child] = ledgerIndex;
+    }
+
+    private void check(LineageIndex lineage, int wallets) {
+        int size = 0;
+        for (boolean wallet : known) {
+            size += wallet ? 1 : 0;
+        }
+        assertEquals(size, lineage.size());
+        List<Set<Integer>> descendants = new ArrayList<>();
+        for (int wallet = 0; wallet < wallets; wallet++) {
+            descendants.add(new HashSet<>());
+        }
+        for (int wallet = 0; wallet < wallets; wallet++) {
+            int depth = 0;
+            List<String> ancestors = new ArrayList<>();
+            for (int walk = parents[wallet]; walk >= 0; walk = parents[walk]) {
+                descendants.get(walk).add(wallet);
+                ancestors.add(addresses[walk]);
+                depth++;
+            }
+            String address = addresses[wallet];
+            assertEquals(address, parents[wallet] >= 0 ? addresses[parents[wallet]] : null, lineage.parent(address));
+            assertEquals(address, known[wallet], lineage.contains(address));
+            assertEquals(address, known[wallet] ? depth : -1, lineage.depth(address));
+            assertEquals(address, ancestors, lineage.ancestors(address));
+        }
+        for (int test = 0; test < 200; test++) {
+            int ancestor = random.nextInt(test < 20 ? 10 : wallets);
+            String address = addresses[ancestor];
+            Set<Integer> expected = descendants.get(ancestor);
+            assertEquals(address, expected.size(), lineage.descendantCount(address));
+            Set<String> found = new HashSet<>(lineage.descendants(address, Integer.MAX_VALUE));
+            assertEquals(address, expected.size(), found.size());
+            for (int descendant : expected) {
+                assertTrue(address + " " + addresses[descendant], found.contains(addresses[descendant]));
+            }
+            assertEquals(address, Math.min(5, expected.size()), lineage.descendants(address, 5).size());
+            for (int other = 0; other < 50; other++) {
+                int wallet = random.nextInt(wallets);
+                assertEquals(addresses[wallet] + " " + address, expected.contains(wallet), lineage.isDescendant(addresses[wallet], address));
+            }
+            for (int descendant : expected) {
+                assertTrue(lineage.isDescendant(addresses[descendant], address));
+            }
+        }
+    }
+
+    private static Map<String, Object> activation(String parent, String child, long ledgerIndex) {
+        Map<String, Object> activation = new HashMap<>();
+        activation.put("parent", parent);
+        activation.put("child", child);
+        activation.put("ledgerIndex", ledgerIndex);
+        return activation;
+    }
+
+}
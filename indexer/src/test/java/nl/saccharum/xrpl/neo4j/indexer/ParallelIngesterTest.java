@@ -0,0 +1,68 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author smelis
+ */
+public class ParallelIngesterTest {
+
+    /**
+     * Remembers the ledgers instead of writing them.
+     */
+    private static class RecordingWriter extends BatchWriter {
+
+        private final Set<Long> written;
+
+        RecordingWriter(Set<Long> written) {
+            super(null, "neo4j", new WalletRegistry(10, WalletRegistry.Eviction.NONE), new IndexerMetrics(), 1, 1, 0);
+            this.written = written;
+        }
+
+        @Override
+        public void add(LedgerRows rows) {
+            written.add(rows.getLedgerIndex());
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void waitsForPartitionsLeasedToOthers() throws Exception {
+        Path file = Files.createTempFile("parallel-ingester-test", ".txt");
+        try (FileWorkQueue queue = new FileWorkQueue(file, 1_000)) {
+            queue.init(0, 30, 10);
+            // Claimed by a process that dies right away
+            assertArrayEquals(new long[]{0, 10}, queue.claim("gone"));
+            Set<Long> written = Collections.synchronizedSet(new TreeSet<>());
+            ParallelIngester ingester = new ParallelIngester(queue,
+                    (ledgerIndex) -> Long.toString(ledgerIndex).getBytes(StandardCharsets.UTF_8),
+                    (ledger) -> new LedgerRows(Long.parseLong(new String(ledger, StandardCharsets.UTF_8))),
+                    (worker) -> new RecordingWriter(written), new ProgressTracker(), 2, 1, 1, 4, 1_000);
+            ingester.run("test");
+
+            List<Long> expected = new ArrayList<>();
+            for (long ledgerIndex = 0; ledgerIndex < 30; ledgerIndex++) {
+                expected.add(ledgerIndex);
+            }
+            assertEquals(expected, new ArrayList<>(written));
+            assertEquals(0, queue.remaining());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import okhttp3.HttpUrl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link RippledClient} against two {@link StubRippledServer}s, only
+ * one of which has the ledgers asked for.
+ *
+ * @author smelis
+ */
+public class RippledClientTest {
+
+    private Path prunedPath;
+    private Path fullPath;
+    private SegmentedCacher prunedCache;
+    private SegmentedCacher fullCache;
+    private StubRippledServer pruned;
+    private StubRippledServer full;
+
+    @Before
+    public void startServers() throws IOException {
+        prunedPath = Files.createTempDirectory("rippled-client-test");
+        fullPath = Files.createTempDirectory("rippled-client-test");
+        prunedCache = new SegmentedCacher(prunedPath);
+        fullCache = new SegmentedCacher(fullPath);
+        for (long ledgerIndex = 1; ledgerIndex <= 20; ledgerIndex++) {
+            fullCache.cacheLedger("{\"ledger\":{\"ledger_index\":\"" + ledgerIndex + "\"}}", ledgerIndex);
+        }
+        pruned = new StubRippledServer(prunedCache, 0);
+        full = new StubRippledServer(fullCache, 0);
+        pruned.start();
+        full.start();
+    }
+
+    @After
+    public void stopServers() throws IOException {
+        pruned.close();
+        full.close();
+        prunedCache.close();
+        fullCache.close();
+        FileUtils.deleteDirectory(prunedPath.toFile());
+        FileUtils.deleteDirectory(fullPath.toFile());
+    }
+
+    @Test(timeout = 60_000)
+    public void missingLedgersAreFetchedElsewhereWithoutEjecting() throws Exception {
+        RippledClient client = new RippledClient(Arrays.asList(url(pruned), url(full)), 1_000, 1_000, 500);
+        for (long ledgerIndex = 1; ledgerIndex <= 20; ledgerIndex++) {
+            String ledger = new String(client.ledger(ledgerIndex), StandardCharsets.UTF_8);
+            assertTrue(ledger, ledger.contains("\"ledger_index\":\"" + ledgerIndex + "\""));
+        }
+        for (String endpoint : client.describeEndpoints()) {
+            assertFalse(endpoint, endpoint.endsWith("ejected"));
+            assertTrue(endpoint, endpoint.contains("inFlight=0"));
+        }
+    }
+
+    private static HttpUrl url(StubRippledServer server) {
+        return HttpUrl.get("http://localhost:" + server.getPort() + "/");
+    }
+
+}
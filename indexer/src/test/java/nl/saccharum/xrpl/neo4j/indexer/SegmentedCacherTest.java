@@ -0,0 +1,126 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author smelis
+ */
+public class SegmentedCacherTest {
+
+    private Path cachePath;
+
+    @Before
+    public void open() throws IOException {
+        cachePath = Files.createTempDirectory("segmented-cacher-test");
+    }
+
+    @After
+    public void close() throws IOException {
+        FileUtils.deleteDirectory(cachePath.toFile());
+    }
+
+    @Test
+    public void readsBackWhatWasCached() throws IOException {
+        try (SegmentedCacher cache = new SegmentedCacher(cachePath, 100, false)) {
+            for (long ledgerIndex = 32_570; ledgerIndex < 33_000; ledgerIndex += 3) {
+                cache.cacheLedger(ledger(ledgerIndex), ledgerIndex);
+            }
+            assertFalse(cache.isCached(32_571));
+            assertNull(cache.getCachedLedger(32_571));
+            assertNull(cache.getCachedLedger(1_000_000));
+        }
+        try (SegmentedCacher cache = new SegmentedCacher(cachePath)) {
+            assertEquals(100, cache.getSegmentSize());
+            for (long ledgerIndex = 32_570; ledgerIndex < 33_000; ledgerIndex += 3) {
+                assertTrue(cache.isCached(ledgerIndex));
+                assertEquals(ledger(ledgerIndex), cache.getCachedLedger(ledgerIndex));
+            }
+        }
+    }
+
+    @Test
+    public void replacesOnlyWhenAskedTo() throws IOException {
+        try (SegmentedCacher cache = new SegmentedCacher(cachePath, 100, true)) {
+            cache.cacheLedger(ledger(32_570), 32_570);
+            cache.cacheLedger("corrupt", 32_570);
+            assertEquals(ledger(32_570), cache.getCachedLedger(32_570));
+            cache.replaceLedger("fixed".getBytes(StandardCharsets.UTF_8), 32_570);
+            assertEquals("fixed", cache.getCachedLedger(32_570));
+        }
+        try (SegmentedCacher cache = new SegmentedCacher(cachePath, 100, false)) {
+            assertEquals("fixed", cache.getCachedLedger(32_570));
+        }
+    }
+
+    @Test
+    public void readsCompressedAndUncompressedRecords() throws IOException {
+        try (SegmentedCacher cache = new SegmentedCacher(cachePath, 100, true)) {
+            cache.cacheLedger(ledger(1), 1);
+            // Too short to get any smaller, stored as is
+            cache.cacheLedger("{}", 2);
+        }
+        try (SegmentedCacher cache = new SegmentedCacher(cachePath, 100, false)) {
+            cache.cacheLedger(ledger(3), 3);
+            assertEquals(ledger(1), cache.getCachedLedger(1));
+            assertEquals("{}", cache.getCachedLedger(2));
+            assertEquals(ledger(3), cache.getCachedLedger(3));
+        }
+    }
+
+    @Test
+    public void refusesAnotherSegmentSize() throws IOException {
+        new SegmentedCacher(cachePath, 100, false).close();
+        try {
+            new SegmentedCacher(cachePath, 1_000, false);
+            fail("Opened a cache of segments of 100 ledgers with segments of 1000");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void refusesACacheThatIsInUse() throws IOException {
+        try (SegmentedCacher cache = new SegmentedCacher(cachePath, 100, false)) {
+            try {
+                new SegmentedCacher(cachePath, 100, false);
+                fail("Opened a cache that is open already");
+            } catch (IOException expected) {
+            }
+        }
+        new SegmentedCacher(cachePath, 100, false).close();
+    }
+
+    @Test
+    public void infersTheSegmentSizeOfCachesWithoutProperties() throws IOException {
+        try (SegmentedCacher cache = new SegmentedCacher(cachePath, 100, false)) {
+            cache.cacheLedger(ledger(250), 250);
+        }
+        Files.delete(cachePath.resolve("cache.properties"));
+        try (SegmentedCacher cache = new SegmentedCacher(cachePath)) {
+            assertEquals(100, cache.getSegmentSize());
+            assertEquals(ledger(250), cache.getCachedLedger(250));
+        }
+        assertTrue(Files.exists(cachePath.resolve("cache.properties")));
+    }
+
+    private static String ledger(long ledgerIndex) {
+        StringBuilder ledger = new StringBuilder("{\"ledger_index\":" + ledgerIndex + ",\"transactions\":[");
+        for (int i = 0; i < 20; i++) {
+            ledger.append(i > 0 ? "," : "").append("{\"hash\":\"").append(ledgerIndex * 100 + i).append("\"}");
+        }
+        return ledger.append("]}").toString();
+    }
+
+}
@@ -0,0 +1,333 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal stand-in for rippled's WebSocket API, replaying the ledgers of a
+ * ledger cache on the <code>ledger</code> stream as if they were being
+ * validated: one every <code>intervalMillis</code>, starting at a given
+ * ledger, until the cache runs out. Together with a {@link StubRippledServer}
+ * on the same cache it lets the indexer's tail mode run without a real server.
+ *
+ * To test recovering from outages, the stub can drop all connections every
+ * so many ledgers. Ledgers keep being validated while the clients reconnect,
+ * so they see a gap, like they would with rippled.
+ *
+ * Only what the subscription needs is implemented: the handshake, unmasked
+ * text frames out, masked text, ping and close frames in, and the
+ * <code>subscribe</code> command.
+ *
+ * Usage: StubLedgerStream &lt;cache dir&gt; &lt;first ledger&gt; [ws port]
+ * [rpc port] [interval ms] [disconnect every]
+ *
+ * @author smelis
+ */
+public class StubLedgerStream implements AutoCloseable {
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int TEXT = 0x1;
+    private static final int CLOSE = 0x8;
+    private static final int PING = 0x9;
+    private static final int PONG = 0xA;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LedgerCache cache;
+    private final ServerSocket serverSocket;
+    private final List<Connection> subscribed = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService validator = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "stub-validator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long firstLedger;
+    private volatile long validatedLedger;
+    private volatile int disconnectEvery = 0;
+
+    public StubLedgerStream(LedgerCache cache, long firstLedger, int port) throws IOException {
+        this.cache = cache;
+        this.firstLedger = firstLedger;
+        this.validatedLedger = firstLedger;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * @param disconnectEvery drop all connections after this many ledgers, 0
+     * never does
+     */
+    public void setDisconnectEvery(int disconnectEvery) {
+        this.disconnectEvery = disconnectEvery;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getValidatedLedger() {
+        return validatedLedger;
+    }
+
+    public void start(long intervalMillis) {
+        Thread acceptor = new Thread(this::accept, "stub-ws-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        validator.scheduleAtFixedRate(this::validateNext, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        System.out.println("Stub ledger stream listening on ws://localhost:" + getPort() + "/");
+    }
+
+    @Override
+    public void close() throws IOException {
+        validator.shutdownNow();
+        serverSocket.close();
+        subscribed.forEach(Connection::close);
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread reader = new Thread(() -> new Connection(socket).serve(), "stub-ws-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException ex) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Accept failed: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private void validateNext() {
+        try {
+            long next = validatedLedger + 1;
+            byte[] ledger = cache.getCachedLedgerBytes(next);
+            if (ledger == null) {
+                return;
+            }
+            validatedLedger = next;
+            String message = ledgerClosed(next, ledger);
+            subscribed.forEach((connection) -> connection.send(message));
+            int every = disconnectEvery;
+            if (every > 0 && (next - firstLedger) % every == 0) {
+                System.out.println("Dropping " + subscribed.size() + " connections after ledger " + next);
+                subscribed.forEach(Connection::close);
+            }
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("Could not validate the next ledger: " + ex);
+        }
+    }
+
+    private String ledgerClosed(long ledgerIndex, byte[] cached) throws IOException {
+        JsonNode ledger = objectMapper.readTree(cached).path("ledger");
+        ObjectNode message = objectMapper.createObjectNode();
+        message.put("type", "ledgerClosed");
+        message.put("fee_base", 10);
+        message.put("fee_ref", 10);
+        message.put("ledger_hash", ledger.path("ledger_hash").asText());
+        message.put("ledger_index", ledgerIndex);
+        message.put("ledger_time", ledger.path("close_time").asLong());
+        message.put("reserve_base", 10_000_000);
+        message.put("reserve_inc", 2_000_000);
+        message.put("txn_count", ledger.path("transactions").size());
+        message.put("validated_ledgers", firstLedger + "-" + ledgerIndex);
+        return objectMapper.writeValueAsString(message);
+    }
+
+    private class Connection {
+
+        private final Socket socket;
+        private OutputStream out;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        void serve() {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                out = socket.getOutputStream();
+                if (!handshake(in)) {
+                    return;
+                }
+                while (true) {
+                    int first = in.readUnsignedByte();
+                    int second = in.readUnsignedByte();
+                    int opcode = first & 0x0f;
+                    long length = second & 0x7f;
+                    if (length == 126) {
+                        length = in.readUnsignedShort();
+                    } else if (length == 127) {
+                        length = in.readLong();
+                    }
+                    byte[] mask = new byte[4];
+                    if ((second & 0x80) != 0) {
+                        in.readFully(mask);
+                    }
+                    byte[] payload = new byte[(int) length];
+                    in.readFully(payload);
+                    for (int i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i % 4];
+                    }
+                    if (opcode == TEXT) {
+                        command(new String(payload, StandardCharsets.UTF_8));
+                    } else if (opcode == PING) {
+                        frame(PONG, payload);
+                    } else if (opcode == CLOSE) {
+                        frame(CLOSE, payload);
+                        break;
+                    }
+                }
+            } catch (IOException ex) {
+                // Gone, or dropped on purpose
+            } finally {
+                close();
+            }
+        }
+
+        private boolean handshake(DataInputStream in) throws IOException {
+            String key = null;
+            for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+                    key = line.substring(colon + 1).trim();
+                }
+            }
+            if (key == null) {
+                out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                return false;
+            }
+            String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + accept(key) + "\r\n\r\n";
+            synchronized (this) {
+                out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+            }
+            return true;
+        }
+
+        private String readLine(DataInputStream in) throws IOException {
+            // Byte by byte, so nothing after the headers is read
+            StringBuilder line = new StringBuilder();
+            for (int b = in.readUnsignedByte(); b != '\n'; b = in.readUnsignedByte()) {
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        private void command(String text) throws IOException {
+            JsonNode request = objectMapper.readTree(text);
+            ObjectNode response = objectMapper.createObjectNode();
+            if (request.has("id")) {
+                response.set("id", request.get("id"));
+            }
+            response.put("type", "response");
+            String command = request.path("command").asText();
+            boolean ledgerStream = false;
+            for (JsonNode stream : request.path("streams")) {
+                ledgerStream |= "ledger".equals(stream.asText());
+            }
+            if ("subscribe".equals(command) && ledgerStream) {
+                long ledgerIndex = validatedLedger;
+                ObjectNode result = response.putObject("result");
+                result.put("fee_base", 10);
+                result.put("fee_ref", 10);
+                result.put("ledger_index", ledgerIndex);
+                result.put("reserve_base", 10_000_000);
+                result.put("reserve_inc", 2_000_000);
+                result.put("validated_ledgers", firstLedger + "-" + ledgerIndex);
+                response.put("status", "success");
+                frame(TEXT, objectMapper.writeValueAsBytes(response));
+                subscribed.add(this);
+            } else {
+                response.put("error", "subscribe".equals(command) ? "malformedStream" : "unknownCmd");
+                response.put("status", "error");
+                frame(TEXT, objectMapper.writeValueAsBytes(response));
+            }
+        }
+
+        void send(String message) {
+            try {
+                frame(TEXT, message.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ex) {
+                close();
+            }
+        }
+
+        private synchronized void frame(int opcode, byte[] payload) throws IOException {
+            out.write(0x80 | opcode);
+            if (payload.length < 126) {
+                out.write(payload.length);
+            } else if (payload.length < 65536) {
+                out.write(126);
+                out.write(payload.length >>> 8);
+                out.write(payload.length);
+            } else {
+                out.write(127);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out.write((int) ((long) payload.length >>> shift));
+                }
+            }
+            out.write(payload);
+            out.flush();
+        }
+
+        void close() {
+            subscribed.remove(this);
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // Closing anyway
+            }
+        }
+    }
+
+    private static String accept(String key) {
+        try {
+            byte[] sha1 = MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(sha1);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: StubLedgerStream <cache dir> <first ledger> [ws port] [rpc port] [interval ms] [disconnect every]");
+            System.exit(1);
+        }
+        LedgerCache cache = new SegmentedCacher(Paths.get(args[0]));
+        long firstLedger = Long.parseLong(args[1]);
+        int wsPort = args.length > 2 ? Integer.parseInt(args[2]) : 6006;
+        int rpcPort = args.length > 3 ? Integer.parseInt(args[3]) : 51234;
+        long intervalMillis = args.length > 4 ? Long.parseLong(args[4]) : 3_500;
+        StubLedgerStream stream = new StubLedgerStream(cache, firstLedger, wsPort);
+        if (args.length > 5) {
+            stream.setDisconnectEvery(Integer.parseInt(args[5]));
+        }
+        // The tail fetches the ledgers it is told about over JSON-RPC
+        new StubRippledServer(cache, rpcPort).start();
+        stream.start(intervalMillis);
+    }
+
+}
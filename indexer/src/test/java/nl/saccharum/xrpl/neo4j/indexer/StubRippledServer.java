@@ -0,0 +1,160 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Minimal stand-in for rippled's JSON-RPC API, serving the <code>ledger</code>
+ * method from a ledger cache. Point the indexer at it (with an empty cache of
+ * its own) to measure ingestion throughput without touching a real server.
+ *
+ * To see how the indexer copes with a struggling server, the stub can delay
+ * responses, fail a fraction of them with HTTP 500 and answer a fraction with
+ * rippled's <code>slowDown</code> error.
+ *
+ * Usage: StubRippledServer &lt;cache dir&gt; [port] [delay ms] [error rate]
+ * [slow down rate]
+ *
+ * @author smelis
+ */
+public class StubRippledServer implements AutoCloseable {
+
+    private static final byte[] RESULT_PREFIX = "{\"result\":".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LedgerCache cache;
+    private final HttpServer server;
+    private volatile long delayMillis = 0;
+    private volatile double errorRate = 0;
+    private volatile double slowDownRate = 0;
+
+    public StubRippledServer(LedgerCache cache, int port) throws IOException {
+        this.cache = cache;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Stub rippled listening on http://localhost:" + getPort() + "/");
+    }
+
+    /**
+     * Delays every response by up to twice the given time, so on average by
+     * the given time.
+     */
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * @param errorRate fraction of requests to fail with HTTP 500
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param slowDownRate fraction of requests to answer with slowDown
+     */
+    public void setSlowDownRate(double slowDownRate) {
+        this.slowDownRate = slowDownRate;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            JsonNode request = objectMapper.readTree(in);
+            if (delayMillis > 0) {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(2 * delayMillis + 1));
+            }
+            double dice = ThreadLocalRandom.current().nextDouble();
+            if (dice < errorRate) {
+                respond(exchange, 500, "Internal Server Error");
+                return;
+            }
+            if (dice < errorRate + slowDownRate) {
+                respond(exchange, 200, "{\"result\":" + error("slowDown") + "}");
+                return;
+            }
+            String method = request.path("method").asText();
+            JsonNode params = request.path("params").path(0);
+            byte[] ledger = null;
+            if ("ledger".equals(method) && params.path("ledger_index").canConvertToLong()) {
+                ledger = cache.getCachedLedgerBytes(params.path("ledger_index").asLong());
+            }
+            if (ledger == null) {
+                respond(exchange, 200, "{\"result\":" + error("ledger".equals(method) ? "lgrNotFound" : "unknownCmd") + "}");
+                return;
+            }
+            // Send the cached bytes as they are, no need to decode them
+            ByteArrayOutputStream body = new ByteArrayOutputStream(ledger.length + 11);
+            body.write(RESULT_PREFIX);
+            body.write(ledger);
+            body.write('}');
+            respond(exchange, 200, body.toByteArray());
+        } catch (IOException | RuntimeException ex) {
+            respond(exchange, 500, "{\"result\":" + error("internal") + "}");
+        } catch (InterruptedException ex) {
+            // Stopping; the client still gets an answer instead of a hanging request
+            respond(exchange, 503, "Service Unavailable");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String error(String error) {
+        return "{\"error\":\"" + error + "\",\"status\":\"error\"}";
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        respond(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void respond(HttpExchange exchange, int status, byte[] bytes) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: StubRippledServer <cache dir> [port] [delay ms] [error rate] [slow down rate]");
+            System.exit(1);
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 51234;
+        StubRippledServer server = new StubRippledServer(new SegmentedCacher(Paths.get(args[0])), port);
+        if (args.length > 2) {
+            server.setDelayMillis(Long.parseLong(args[2]));
+        }
+        if (args.length > 3) {
+            server.setErrorRate(Double.parseDouble(args[3]));
+        }
+        if (args.length > 4) {
+            server.setSlowDownRate(Double.parseDouble(args[4]));
+        }
+        server.start();
+    }
+
+}
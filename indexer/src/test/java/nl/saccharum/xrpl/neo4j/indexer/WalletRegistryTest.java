@@ -0,0 +1,60 @@
+package nl.saccharum.xrpl.neo4j.indexer;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author smelis
+ */
+public class WalletRegistryTest {
+
+    @Test
+    public void decodesAndEncodesKnownAddresses() {
+        // The genesis account, and the special accounts zero and one
+        assertRoundTrip("rHb9CJAWyB4rj91VRWn96DkukG4bwdtyTh", "b5f762798a53d543a014caf8b297cff8f2f937e8");
+        assertRoundTrip("rrrrrrrrrrrrrrrrrrrrrhoLvTp", "0000000000000000000000000000000000000000");
+        assertRoundTrip("rrrrrrrrrrrrrrrrrrrrBZbvji", "0000000000000000000000000000000000000001");
+    }
+
+    @Test
+    public void roundTripsAnyAccountId() {
+        Random random = new Random(58);
+        for (int i = 0; i < 10_000; i++) {
+            byte[] accountId = new byte[AccountIdMap.ACCOUNT_ID_LENGTH];
+            random.nextBytes(accountId);
+            // Leading zero bytes are encoded as leading r's
+            for (int zero = 0; zero < i % 4; zero++) {
+                accountId[zero] = 0;
+            }
+            String address = WalletRegistry.encode(accountId);
+            assertEquals('r', address.charAt(0));
+            assertArrayEquals(accountId, WalletRegistry.decode(address));
+        }
+    }
+
+    @Test
+    public void doesNotDecodeOtherNames() {
+        assertNull(WalletRegistry.decode(null));
+        assertNull(WalletRegistry.decode("genesis"));
+        assertNull(WalletRegistry.decode(""));
+        // Not an r, and a character that isn't in the alphabet
+        assertNull(WalletRegistry.decode("xHb9CJAWyB4rj91VRWn96DkukG4bwdtyTh"));
+        assertNull(WalletRegistry.decode("rHb9CJAWyB4rj91VRWn96DkukG4bwdty0h"));
+        // Too long for an account ID
+        assertNull(WalletRegistry.decode("rHb9CJAWyB4rj91VRWn96DkukG4bwdtyThzz"));
+    }
+
+    private static void assertRoundTrip(String address, String hex) {
+        byte[] accountId = new byte[AccountIdMap.ACCOUNT_ID_LENGTH];
+        for (int i = 0; i < accountId.length; i++) {
+            accountId[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        assertArrayEquals(accountId, WalletRegistry.decode(address));
+        assertEquals(address, WalletRegistry.encode(accountId));
+    }
+
+}